@@ -0,0 +1,191 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+
+// Server-side raster of a room's canvas, the same 800x600 as the client's
+// DrawingCanvas. Segments are painted as they are relayed, and a snapshot is
+// the canvas as 64px tiles, each run-length encoded, so its size depends on
+// the picture rather than on how many strokes made it. Tiles are re-encoded
+// only after something was drawn over them. Not thread-safe: each room's
+// raster is confined to one raster thread.
+final class CanvasRaster {
+    static final String CAPABILITY = "canvas-snapshot";
+    static final int WIDTH = 800;
+    static final int HEIGHT = 600;
+    static final int TILE = 64;
+    private static final int COLUMNS = (WIDTH + TILE - 1) / TILE;
+    private static final int ROWS = (HEIGHT + TILE - 1) / TILE;
+    private static final int BACKGROUND = 0xFFFFFF;
+
+    // Allocated on the first stroke, so rooms that never draw cost nothing
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private final BasicStroke[] strokes = new BasicStroke[64];
+    private int color = -1;
+    private final boolean[] dirty = new boolean[COLUMNS * ROWS];
+    private final byte[][] tiles = new byte[COLUMNS * ROWS][];
+    private final int[] pixels = new int[TILE * TILE];
+    private final StrokeCodec.SegmentSink painter = this::segment;
+    private Packet snapshot;
+
+    void apply(StrokeCodec.Segments segments) {
+        if (segments.size() == 0) return;
+        if (image == null) allocate();
+        segments.forEach(painter);
+        snapshot = null;
+    }
+
+    private void allocate() {
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        // Antialiasing stays off: it would turn every edge into runs of its own
+        graphics = image.createGraphics();
+        wipe();
+    }
+
+    private void segment(int x1, int y1, int x2, int y2, int rgb, int size) {
+        if (rgb != color) {
+            graphics.setColor(new Color(rgb));
+            color = rgb;
+        }
+        graphics.setStroke(stroke(size));
+        graphics.drawLine(x1, y1, x2, y2);
+        int reach = size / 2 + 1;
+        markDirty(Math.min(x1, x2) - reach, Math.min(y1, y2) - reach,
+            Math.max(x1, x2) + reach, Math.max(y1, y2) + reach);
+    }
+
+    private BasicStroke stroke(int size) {
+        if (size < 0 || size >= strokes.length) {
+            return new BasicStroke(size, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        }
+        BasicStroke stroke = strokes[size];
+        if (stroke == null) {
+            stroke = new BasicStroke(size, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            strokes[size] = stroke;
+        }
+        return stroke;
+    }
+
+    private void markDirty(int minX, int minY, int maxX, int maxY) {
+        int firstColumn = Math.max(0, minX / TILE), lastColumn = Math.min(COLUMNS - 1, maxX / TILE);
+        int firstRow = Math.max(0, minY / TILE), lastRow = Math.min(ROWS - 1, maxY / TILE);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                dirty[row * COLUMNS + column] = true;
+            }
+        }
+    }
+
+    void clear() {
+        if (image == null) return;
+        wipe();
+        snapshot = null;
+    }
+
+    private void wipe() {
+        graphics.setColor(new Color(BACKGROUND));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        color = BACKGROUND;
+        Arrays.fill(dirty, true);
+    }
+
+    // SNAPSHOT|<base64>, reusing every tile that has not changed since the
+    // previous snapshot
+    Packet snapshot() {
+        if (snapshot != null) return snapshot;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, WIDTH);
+        writeVarint(out, HEIGHT);
+        writeVarint(out, TILE);
+        for (int i = 0; i < tiles.length; i++) {
+            if (dirty[i] || tiles[i] == null) {
+                tiles[i] = encodeTile(i % COLUMNS, i / COLUMNS);
+                dirty[i] = false;
+            }
+            out.write(tiles[i], 0, tiles[i].length);
+        }
+        snapshot = Packet.of("SNAPSHOT|" + Base64.getEncoder().encodeToString(out.toByteArray()));
+        return snapshot;
+    }
+
+    // Runs of (varint length, r, g, b) in row-major order
+    private byte[] encodeTile(int column, int row) {
+        int x = column * TILE, y = row * TILE;
+        int width = Math.min(TILE, WIDTH - x), height = Math.min(TILE, HEIGHT - y);
+        if (image == null) {
+            Arrays.fill(pixels, BACKGROUND);
+        } else {
+            image.getRGB(x, y, width, height, pixels, 0, width);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        int count = width * height;
+        int run = 1;
+        for (int i = 1; i <= count; i++) {
+            if (i < count && (pixels[i] & 0xFFFFFF) == (pixels[i - 1] & 0xFFFFFF)) {
+                run++;
+                continue;
+            }
+            int rgb = pixels[i - 1];
+            writeVarint(out, run);
+            out.write(rgb >> 16);
+            out.write(rgb >> 8);
+            out.write(rgb);
+            run = 1;
+        }
+        return out.toByteArray();
+    }
+
+    static BufferedImage decode(byte[] data) {
+        int[] position = {0};
+        int width = readVarint(data, position);
+        int height = readVarint(data, position);
+        int tile = readVarint(data, position);
+        if (width <= 0 || height <= 0 || tile <= 0 || width > 4096 || height > 4096 || tile > 512) {
+            throw new IllegalArgumentException("Malformed snapshot");
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[tile * tile];
+        for (int y = 0; y < height; y += tile) {
+            for (int x = 0; x < width; x += tile) {
+                int w = Math.min(tile, width - x), h = Math.min(tile, height - y);
+                int filled = 0;
+                while (filled < w * h) {
+                    int run = readVarint(data, position);
+                    if (run <= 0 || filled + run > w * h || position[0] + 3 > data.length) {
+                        throw new IllegalArgumentException("Malformed snapshot");
+                    }
+                    int p = position[0];
+                    int rgb = ((data[p] & 0xFF) << 16) | ((data[p + 1] & 0xFF) << 8) | (data[p + 2] & 0xFF);
+                    position[0] = p + 3;
+                    Arrays.fill(pixels, filled, filled + run, rgb);
+                    filled += run;
+                }
+                image.setRGB(x, y, w, h, pixels, 0, w);
+            }
+        }
+        return image;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= data.length) throw new IllegalArgumentException("Malformed snapshot");
+            byte b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed snapshot");
+    }
+}
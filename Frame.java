@@ -0,0 +1,530 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Protocol version 2: the same messages as the text protocol, as
+// length-prefixed binary frames. A client asks with PROTO|2 as its first
+// line and sends nothing else until the answer; PROTO|2 back means both
+// sides switch to frames from the next byte, anything else (PROTO|1 from a
+// server or router that declines, or silence from one that predates it)
+// means text.
+//
+//   frame     varint length of what follows, opcode byte, fields
+//   string    varint byte length, UTF-8
+//   int       zig-zag varint
+//   bytes     varint length, raw; what text sends as base64
+//   segments  varint count, then per segment x1, y1, x2, y2 as zig-zag
+//             varints, rgb as 3 bytes and size as a varint
+//
+// Each opcode has a field layout per direction. Fields are length-prefixed,
+// so chat and guesses may contain '|'. A numbered room message (@seq|... in
+// text) is a SEQ frame: the number, then the message's opcode and fields.
+// Text with no framed form travels whole in a LINE frame.
+final class Frame {
+    static final int VERSION = 2;
+    static final String HANDSHAKE = "PROTO|" + VERSION;
+    static final String DECLINED = "PROTO|1";
+    // Frames a server accepts; clients take longer ones (snapshots)
+    static final int MAX_CLIENT_FRAME = 64 * 1024;
+    static final int MAX_SERVER_FRAME = 16 * 1024 * 1024;
+    // How long a server that predates PROTO is given to answer it
+    private static final int HANDSHAKE_TIMEOUT_MS = 2000;
+
+    static final int LINE = 0;
+    static final int SEQ = 1;
+    static final int SET_NAME = 2;
+    static final int SET_AVATAR = 3;
+    static final int CREATE_ROOM = 4;
+    static final int JOIN_ROOM = 5;
+    static final int LIST_ROOMS = 6;
+    static final int LEADERBOARD = 7;
+    static final int STATS = 8;
+    static final int LOBBY_SUBSCRIBE = 9;
+    static final int LOBBY_UNSUBSCRIBE = 10;
+    static final int START_GAME = 11;
+    static final int DRAW = 12;
+    static final int DRAW_BATCH = 13;
+    static final int STROKE = 14;
+    static final int CAPS = 15;
+    static final int CLEAR = 16;
+    static final int RESYNC = 17;
+    static final int SNAPSHOT = 18;
+    static final int RESUME = 19;
+    static final int GUESS = 20;
+    static final int CHAT = 21;
+    static final int SELECT_WORD = 22;
+    static final int CONFIGURE = 23;
+    static final int NAME_SET = 24;
+    static final int SESSION = 25;
+    static final int RESUMED = 26;
+    static final int RESUME_FAILED = 27;
+    static final int ROOM_CREATED = 28;
+    static final int ROOM_JOINED = 29;
+    static final int ROOM_LIST = 30;
+    static final int ROOM_PAGE = 31;
+    static final int ROOM_DIFF = 32;
+    static final int PLAYER_JOINED = 33;
+    static final int PLAYER_LEFT = 34;
+    static final int NEW_HOST = 35;
+    static final int STATE = 36;
+    static final int DELTA = 37;
+    static final int PLAYER_LIST = 38;
+    static final int SCORES = 39;
+    static final int SCORE = 40;
+    static final int CONFIG = 41;
+    static final int CONFIG_UPDATED = 42;
+    static final int GAME_START = 43;
+    static final int ROUND_START = 44;
+    static final int DRAWER = 45;
+    static final int CHOOSE_WORD = 46;
+    static final int WORD_SELECTED = 47;
+    static final int TIMER = 48;
+    static final int HINT = 49;
+    static final int CLOSE_GUESS = 50;
+    static final int CORRECT_GUESS = 51;
+    static final int ROUND_END = 52;
+    static final int GAME_END = 53;
+    static final int ERROR = 54;
+
+    // Layouts, one character per field: s string, i int, b bytes, d segments,
+    // * any number of strings. A trailing field may be left out; the last
+    // string of a text line takes the rest of it, '|' included.
+    private static final String[] NAMES = new String[256];
+    private static final String[] FROM_CLIENT = new String[256];
+    private static final String[] FROM_SERVER = new String[256];
+    private static final Map<String, Integer> OPCODES = new HashMap<>();
+
+    static {
+        define(LINE, "LINE", null, null);
+        define(SEQ, "SEQ", null, null);
+        define(SET_NAME, "SET_NAME", "s", null);
+        define(SET_AVATAR, "SET_AVATAR", "ss", null);
+        define(CREATE_ROOM, "CREATE_ROOM", "s", null);
+        define(JOIN_ROOM, "JOIN_ROOM", "s", null);
+        define(LIST_ROOMS, "LIST_ROOMS", "s", null);
+        define(LEADERBOARD, "LEADERBOARD", "", "*");
+        define(STATS, "STATS", "s", "s");
+        define(LOBBY_SUBSCRIBE, "LOBBY_SUBSCRIBE", "", null);
+        define(LOBBY_UNSUBSCRIBE, "LOBBY_UNSUBSCRIBE", "", null);
+        define(START_GAME, "START_GAME", "", null);
+        define(DRAW, "DRAW", "d", "d");
+        define(DRAW_BATCH, "DRAW_BATCH", "d", "d");
+        define(STROKE, "STROKE", "b", "b");
+        define(CAPS, "CAPS", "s", "s");
+        define(CLEAR, "CLEAR", "", "");
+        define(RESYNC, "RESYNC", "", null);
+        define(SNAPSHOT, "SNAPSHOT", "", "b");
+        define(RESUME, "RESUME", "sis", null);
+        define(GUESS, "GUESS", "s", null);
+        define(CHAT, "CHAT", "s", "ss");
+        define(SELECT_WORD, "SELECT_WORD", "i", null);
+        define(CONFIGURE, "CONFIGURE", "s", null);
+        define(NAME_SET, "NAME_SET", null, "s");
+        define(SESSION, "SESSION", null, "s");
+        define(RESUMED, "RESUMED", null, "ss");
+        define(RESUME_FAILED, "RESUME_FAILED", null, "");
+        define(ROOM_CREATED, "ROOM_CREATED", null, "s");
+        define(ROOM_JOINED, "ROOM_JOINED", null, "s");
+        define(ROOM_LIST, "ROOM_LIST", null, "*");
+        define(ROOM_PAGE, "ROOM_PAGE", null, "ii*");
+        define(ROOM_DIFF, "ROOM_DIFF", null, "*");
+        define(PLAYER_JOINED, "PLAYER_JOINED", null, "ssss");
+        define(PLAYER_LEFT, "PLAYER_LEFT", null, "s");
+        define(NEW_HOST, "NEW_HOST", null, "s");
+        define(STATE, "STATE", null, "*");
+        define(DELTA, "DELTA", null, "*");
+        define(PLAYER_LIST, "PLAYER_LIST", null, "*");
+        define(SCORES, "SCORES", null, "*");
+        define(SCORE, "SCORE", null, "s");
+        define(CONFIG, "CONFIG", null, "s");
+        define(CONFIG_UPDATED, "CONFIG_UPDATED", null, "s");
+        define(GAME_START, "GAME_START", null, "i");
+        define(ROUND_START, "ROUND_START", null, "ii");
+        define(DRAWER, "DRAWER", null, "ss");
+        define(CHOOSE_WORD, "CHOOSE_WORD", null, "*");
+        define(WORD_SELECTED, "WORD_SELECTED", null, "si");
+        define(TIMER, "TIMER", null, "i");
+        define(HINT, "HINT", null, "s");
+        define(CLOSE_GUESS, "CLOSE_GUESS", null, "s");
+        define(CORRECT_GUESS, "CORRECT_GUESS", null, "ssi");
+        define(ROUND_END, "ROUND_END", null, "s");
+        define(GAME_END, "GAME_END", null, "si");
+        define(ERROR, "ERROR", null, "s");
+    }
+
+    private Frame() {
+    }
+
+    private static void define(int opcode, String name, String fromClient, String fromServer) {
+        NAMES[opcode] = name;
+        FROM_CLIENT[opcode] = fromClient;
+        FROM_SERVER[opcode] = fromServer;
+        OPCODES.put(name, opcode);
+    }
+
+    // The client's side of the handshake, on a fresh connection; true if
+    // both sides now use frames
+    static boolean handshake(Socket socket, OutputStream out, LineCompression.LineReader in) throws IOException {
+        out.write((HANDSHAKE + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        try {
+            return HANDSHAKE.equals(in.readLine());
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    // A client's text command as it goes on the wire
+    static byte[] command(String text, boolean framed) {
+        return framed ? encode(text, false) : (text + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String name(int opcode) {
+        String name = NAMES[opcode & 0xFF];
+        return name != null ? name : "unknown";
+    }
+
+    // A text message, or several joined by '\n', as frames; sent by the
+    // server or by a client. Done once per Packet, not per recipient.
+    static byte[] encode(String text, boolean fromServer) {
+        Writer writer = new Writer();
+        int newline = text.indexOf('\n');
+        if (newline < 0) return writer.line(text, fromServer).finish();
+        ByteArrayOutputStream frames = new ByteArrayOutputStream(text.length() + 16);
+        int start = 0;
+        while (start <= text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) end = text.length();
+            if (end > start) {
+                byte[] frame = writer.line(text.substring(start, end), fromServer).finish();
+                frames.write(frame, 0, frame.length);
+            }
+            start = end + 1;
+        }
+        return frames.toByteArray();
+    }
+
+    static final class Writer {
+        private byte[] body = new byte[128];
+        private int length;
+
+        Writer begin(int opcode) {
+            length = 0;
+            ensure(1);
+            body[length++] = (byte) opcode;
+            return this;
+        }
+
+        Writer string(String value) {
+            return bytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Writer integer(long value) {
+            varint((value << 1) ^ (value >> 63));
+            return this;
+        }
+
+        Writer bytes(byte[] value) {
+            varint(value.length);
+            ensure(value.length);
+            System.arraycopy(value, 0, body, length, value.length);
+            length += value.length;
+            return this;
+        }
+
+        Writer segments(StrokeCodec.Segments segments) {
+            varint(segments.size());
+            segments.forEach((x1, y1, x2, y2, rgb, size) -> {
+                integer(x1);
+                integer(y1);
+                integer(x2);
+                integer(y2);
+                ensure(3);
+                body[length++] = (byte) (rgb >> 16);
+                body[length++] = (byte) (rgb >> 8);
+                body[length++] = (byte) rgb;
+                varint(size);
+            });
+            return this;
+        }
+
+        // The text message in its framed form, or as a LINE frame when its
+        // fields do not fit the layout
+        Writer line(String text, boolean fromServer) {
+            if (text.startsWith("@")) {
+                int bar = text.indexOf('|');
+                if (bar > 1) {
+                    try {
+                        long seq = Long.parseLong(text.substring(1, bar));
+                        begin(SEQ).integer(seq);
+                        if (fields(text.substring(bar + 1), fromServer)) return this;
+                    } catch (IllegalArgumentException e) {
+                        // Framed whole below
+                    }
+                }
+            } else {
+                length = 0;
+                try {
+                    if (fields(text, fromServer)) return this;
+                } catch (IllegalArgumentException e) {
+                    // Framed whole below
+                }
+            }
+            return begin(LINE).string(text);
+        }
+
+        // Appends opcode and fields; false if there is no layout for them
+        private boolean fields(String text, boolean fromServer) {
+            int bar = text.indexOf('|');
+            Integer opcode = OPCODES.get(bar < 0 ? text : text.substring(0, bar));
+            String layout = opcode == null ? null : (fromServer ? FROM_SERVER : FROM_CLIENT)[opcode];
+            if (layout == null) return false;
+            ensure(1);
+            body[length++] = (byte) (int) opcode;
+            if (bar < 0) return true;
+            int position = bar + 1;
+            for (int f = 0; f < layout.length() && position <= text.length(); f++) {
+                char type = layout.charAt(f);
+                boolean last = f == layout.length() - 1;
+                int end = last && type == 's' ? text.length() : text.indexOf('|', position);
+                if (end < 0) end = text.length();
+                String field = text.substring(position, end);
+                switch (type) {
+                    case 's':
+                        string(field);
+                        break;
+                    case 'i':
+                        integer(Long.parseLong(field));
+                        break;
+                    case 'b':
+                        bytes(Base64.getDecoder().decode(field));
+                        break;
+                    case 'd':
+                        StrokeCodec.Segments segments = new StrokeCodec.Segments();
+                        if (!segments.parseText(field)) return false;
+                        segments(segments);
+                        break;
+                    default:
+                        // The rest, one string per field
+                        while (true) {
+                            string(field);
+                            if (end >= text.length()) break;
+                            position = end + 1;
+                            end = text.indexOf('|', position);
+                            if (end < 0) end = text.length();
+                            field = text.substring(position, end);
+                        }
+                }
+                position = end + 1;
+            }
+            // More fields than the layout has room for
+            return position > text.length();
+        }
+
+        byte[] finish() {
+            int header = 1;
+            for (int n = length >>> 7; n != 0; n >>>= 7) header++;
+            byte[] frame = new byte[header + length];
+            int position = 0;
+            int n = length;
+            while ((n & ~0x7F) != 0) {
+                frame[position++] = (byte) ((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            frame[position++] = (byte) n;
+            System.arraycopy(body, 0, frame, position, length);
+            return frame;
+        }
+
+        private void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                body[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            body[length++] = (byte) value;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > body.length) body = Arrays.copyOf(body, Math.max(body.length * 2, length + extra));
+        }
+    }
+
+    // Decodes one frame's fields in place; reused for every frame of a
+    // connection. Throws IllegalArgumentException on malformed input.
+    static final class Reader {
+        private byte[] data = new byte[256];
+        private int position;
+        private int limit;
+        private int opcode;
+        private long sequence;
+
+        // The array a frame of this length is to be read into
+        byte[] reserve(int length) {
+            if (data.length < length) data = new byte[Math.max(length, data.length * 2)];
+            return data;
+        }
+
+        Reader wrap(byte[] frame, int offset, int length) {
+            data = frame;
+            position = offset;
+            limit = offset + length;
+            sequence = -1;
+            opcode = readByte();
+            if (opcode == SEQ) {
+                sequence = integer();
+                opcode = readByte();
+            }
+            return this;
+        }
+
+        int opcode() {
+            return opcode;
+        }
+
+        // The room sequence number, or -1 when the message has none
+        long sequence() {
+            return sequence;
+        }
+
+        boolean hasMore() {
+            return position < limit;
+        }
+
+        // Line breaks become spaces: the text may go on to text clients
+        String string() {
+            int length = length();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value.indexOf('\n') < 0 && value.indexOf('\r') < 0 ? value : value.replaceAll("[\r\n]", " ");
+        }
+
+        int integer() {
+            return (int) longInteger();
+        }
+
+        long longInteger() {
+            long raw = varint();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        byte[] bytes() {
+            int length = length();
+            byte[] value = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return value;
+        }
+
+        void segments(StrokeCodec.SegmentSink sink) {
+            int count = (int) varint();
+            // Every segment takes at least 8 bytes
+            if (count < 0 || count > (limit - position) / 8) throw malformed();
+            for (int i = 0; i < count; i++) {
+                int x1 = integer();
+                int y1 = integer();
+                int x2 = integer();
+                int y2 = integer();
+                if (position + 3 > limit) throw malformed();
+                int rgb = (data[position] & 0xFF) << 16 | (data[position + 1] & 0xFF) << 8 | (data[position + 2] & 0xFF);
+                position += 3;
+                int size = (int) varint();
+                if (!StrokeCodec.onCanvas(x1, y1) || !StrokeCodec.onCanvas(x2, y2) || !StrokeCodec.validSize(size)) {
+                    throw malformed();
+                }
+                sink.segment(x1, y1, x2, y2, rgb, size);
+            }
+        }
+
+        // The message as the text protocol's fields, command first, for
+        // handlers that have no framed version
+        String[] parts(boolean fromServer) {
+            if (opcode == LINE) return string().split("\\|");
+            String layout = (fromServer ? FROM_SERVER : FROM_CLIENT)[opcode];
+            // Undefined, or not a message this side is ever sent
+            if (layout == null) throw malformed();
+            List<String> parts = new ArrayList<>();
+            parts.add(NAMES[opcode]);
+            for (int f = 0; f < layout.length() && hasMore(); f++) {
+                switch (layout.charAt(f)) {
+                    case 's':
+                        parts.add(string());
+                        break;
+                    case 'i':
+                        parts.add(Long.toString(longInteger()));
+                        break;
+                    case 'b':
+                        parts.add(Base64.getEncoder().encodeToString(bytes()));
+                        break;
+                    case 'd':
+                        StrokeCodec.Segments segments = new StrokeCodec.Segments();
+                        segments(segments);
+                        parts.add(segments.toText(false));
+                        break;
+                    default:
+                        while (hasMore()) parts.add(string());
+                }
+            }
+            return parts.toArray(new String[0]);
+        }
+
+        private int readByte() {
+            if (position >= limit) throw malformed();
+            return data[position++] & 0xFF;
+        }
+
+        private int length() {
+            long length = varint();
+            if (length < 0 || length > limit - position) throw malformed();
+            return (int) length;
+        }
+
+        private long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = (byte) readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw malformed();
+        }
+    }
+
+    interface Handler<T> {
+        void handle(T target, Reader frame);
+    }
+
+    // Handlers by opcode
+    static final class Table<T> {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final Handler<T>[] handlers = new Handler[256];
+
+        Table<T> on(int opcode, Handler<T> handler) {
+            handlers[opcode] = handler;
+            return this;
+        }
+
+        // False when the opcode has no handler
+        boolean dispatch(T target, Reader frame) {
+            Handler<T> handler = handlers[frame.opcode()];
+            if (handler == null) return false;
+            handler.handle(target, frame);
+            return true;
+        }
+    }
+
+    private static IllegalArgumentException malformed() {
+        return new IllegalArgumentException("Malformed frame");
+    }
+}
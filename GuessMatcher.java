@@ -0,0 +1,130 @@
+import java.text.Normalizer;
+
+// Checks guesses against the current word. The word is folded once when it
+// is chosen; each guess is folded character by character into a reusable
+// buffer (case, accents, surrounding and repeated whitespace) and compared
+// without allocating. A miss within a small edit distance counts as close.
+// One matcher per round, used only on the room's loop.
+final class GuessMatcher {
+    static final int MISS = 0;
+    static final int CLOSE = 1;
+    static final int EXACT = 2;
+
+    // Folded form of every Latin character: lower case, accent stripped
+    private static final char[] FOLD = new char[0x250];
+    static {
+        for (char c = 0; c < FOLD.length; c++) {
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            FOLD[c] = Character.toLowerCase(decomposed.charAt(0));
+        }
+    }
+
+    private final char[] target;
+    private final int maxEdits;
+    private final char[] folded;
+    private int[] previousRow;
+    private int[] currentRow;
+
+    GuessMatcher(String word) {
+        this.target = fold(word);
+        // One typo for short words, two for longer ones
+        this.maxEdits = target.length <= 5 ? 1 : 2;
+        this.folded = new char[target.length + maxEdits];
+        this.previousRow = new int[target.length + 1];
+        this.currentRow = new int[target.length + 1];
+    }
+
+    int match(String guess) {
+        int length = foldInto(guess);
+        if (length < 0 || target.length == 0) return MISS;
+        if (length == target.length && equalsTarget(length)) return EXACT;
+        return withinEdits(length) ? CLOSE : MISS;
+    }
+
+    // Returns the folded length, or -1 when the guess is too long to match
+    private int foldInto(String guess) {
+        int length = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < guess.length(); i++) {
+            char c = guess.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                pendingSpace = length > 0;
+                continue;
+            }
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (pendingSpace) {
+                if (length == folded.length) return -1;
+                folded[length++] = ' ';
+                pendingSpace = false;
+            }
+            if (length == folded.length) return -1;
+            folded[length++] = foldChar(c);
+        }
+        return length;
+    }
+
+    private boolean equalsTarget(int length) {
+        for (int i = 0; i < length; i++) {
+            if (folded[i] != target[i]) return false;
+        }
+        return true;
+    }
+
+    // Levenshtein distance limited to maxEdits: only the band of cells that
+    // can stay within the limit is filled, and a row whose best cell is
+    // already over it ends the search
+    private boolean withinEdits(int length) {
+        int n = target.length;
+        if (Math.abs(length - n) > maxEdits) return false;
+        int over = maxEdits + 1;
+        for (int j = 0; j <= n; j++) {
+            previousRow[j] = j <= maxEdits ? j : over;
+        }
+        for (int i = 1; i <= length; i++) {
+            int from = Math.max(1, i - maxEdits);
+            int to = Math.min(n, i + maxEdits);
+            currentRow[0] = i <= maxEdits ? i : over;
+            if (from > 1) currentRow[from - 1] = over;
+            int best = currentRow[0];
+            char c = folded[i - 1];
+            for (int j = from; j <= to; j++) {
+                int cost = target[j - 1] == c ? 0 : 1;
+                int value = Math.min(previousRow[j - 1] + cost, Math.min(previousRow[j], currentRow[j - 1]) + 1);
+                currentRow[j] = Math.min(value, over);
+                best = Math.min(best, currentRow[j]);
+            }
+            if (to < n) currentRow[to + 1] = over;
+            if (best > maxEdits) return false;
+            int[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+        return previousRow[n] <= maxEdits;
+    }
+
+    static char foldChar(char c) {
+        return c < FOLD.length ? FOLD[c] : Character.toLowerCase(c);
+    }
+
+    static char[] fold(String word) {
+        String decomposed = Normalizer.normalize(word.trim(), Normalizer.Form.NFD);
+        StringBuilder out = new StringBuilder(decomposed.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                pendingSpace = out.length() > 0;
+                continue;
+            }
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (pendingSpace) {
+                out.append(' ');
+                pendingSpace = false;
+            }
+            out.append(foldChar(c));
+        }
+        char[] folded = new char[out.length()];
+        out.getChars(0, out.length(), folded, 0);
+        return folded;
+    }
+}
@@ -0,0 +1,64 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Consistent-hash ring over the cluster's nodes. Each node is placed at
+// many virtual points so room codes spread evenly, and adding or removing a
+// node only moves the codes next to its points. The router and every node
+// build the ring from the same --cluster list, so they agree on owners
+// without talking to each other.
+final class HashRing {
+    static final int VIRTUAL_NODES = 128;
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final List<String> nodes;
+
+    HashRing(List<String> nodes) {
+        if (nodes.isEmpty()) throw new IllegalArgumentException("Cluster needs at least one node");
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        for (String node : nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    // Nodes are given as host:port,host:port,...
+    static HashRing parse(String cluster) {
+        List<String> nodes = new ArrayList<>();
+        for (String node : cluster.split(",")) {
+            if (!node.trim().isEmpty()) nodes.add(node.trim());
+        }
+        return new HashRing(nodes);
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+
+    boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    String owner(String key) {
+        Map.Entry<Long, String> entry = points.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : points.firstEntry().getValue();
+    }
+
+    // 64-bit FNV-1a with a final avalanche, so short codes like "0042" and
+    // "0043" land far apart on the ring
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
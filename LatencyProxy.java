@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+// A TCP proxy that makes a local server look far away. Every chunk read in
+// either direction is held for the one-way latency plus up to the jitter
+// before it is written on. Over TCP a lost packet is not missing data but
+// data that arrives one retransmission timeout late, holding up everything
+// behind it, so "loss" delays that share of chunks by the timeout instead.
+// Order is always kept.
+//
+//   java LatencyProxy --listen=6555 --target=127.0.0.1:5555 --latency-ms=40 --jitter-ms=10 --loss=0.01
+final class LatencyProxy {
+    // Linux's minimum retransmission timeout
+    private static final long MIN_RTO_MILLIS = 200;
+
+    private final String targetHost;
+    private final int targetPort;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double loss;
+    private ServerSocket server;
+
+    LatencyProxy(String targetHost, int targetPort, long latencyMillis, long jitterMillis, double loss) {
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.loss = loss;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String[] target = ScribbleServer.option(args, "target", "127.0.0.1:5555").split(":");
+        LatencyProxy proxy = new LatencyProxy(target[0], Integer.parseInt(target[1]),
+            ScribbleServer.intOption(args, "latency-ms", 50), ScribbleServer.intOption(args, "jitter-ms", 0),
+            Double.parseDouble(ScribbleServer.option(args, "loss", "0")));
+        int port = proxy.start(ScribbleServer.intOption(args, "listen", 6555));
+        System.out.println("Proxying port " + port + " to " + String.join(":", target));
+    }
+
+    // Port 0 picks a free one; returns the port listened on
+    int start(int port) throws IOException {
+        server = new ServerSocket(port, 512, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "latency-proxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server.getLocalPort();
+    }
+
+    void close() {
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                Socket upstream = new Socket(targetHost, targetPort);
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+                pipe(client, upstream, "up");
+                pipe(upstream, client, "down");
+            } catch (IOException e) {
+                if (!server.isClosed()) e.printStackTrace();
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final long deliverAt;
+        final byte[] bytes;
+
+        Chunk(long deliverAt, byte[] bytes) {
+            this.deliverAt = deliverAt;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Chunk END = new Chunk(0, new byte[0]);
+
+    // One thread reads and stamps, another waits out each stamp and writes
+    private void pipe(Socket from, Socket to, String direction) throws IOException {
+        InputStream in = from.getInputStream();
+        OutputStream out = to.getOutputStream();
+        BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[16 * 1024];
+            long last = 0;
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    long deliverAt = Math.max(last, System.currentTimeMillis() + delay());
+                    chunks.add(new Chunk(deliverAt, Arrays.copyOf(buffer, n)));
+                    last = deliverAt;
+                }
+            } catch (IOException e) {
+                // Either side closed
+            }
+            chunks.add(END);
+        }, "latency-proxy-" + direction + "-in");
+        Thread writer = new Thread(() -> {
+            try {
+                Chunk chunk;
+                while ((chunk = chunks.take()) != END) {
+                    long wait = chunk.deliverAt - System.currentTimeMillis();
+                    if (wait > 0) Thread.sleep(wait);
+                    out.write(chunk.bytes);
+                    if (chunks.isEmpty()) out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // Either side closed
+            }
+            closeQuietly(from);
+            closeQuietly(to);
+        }, "latency-proxy-" + direction + "-out");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    private long delay() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+        if (loss > 0 && random.nextDouble() < loss) delay += Math.max(MIN_RTO_MILLIS, 2 * latencyMillis);
+        return delay;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
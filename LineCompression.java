@@ -0,0 +1,197 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Optional compression of everything the server sends to one client. A
+// client asks for it with the "deflate" capability; the CAPS reply is the
+// last plain line, and from the next byte on the stream is raw deflate
+// (RFC 1951) primed with DICTIONARY. The compression context lives as long
+// as the connection, so a DRAW or CHAT line mostly costs the bytes that
+// differ from recent ones. The writer sync-flushes whenever its queue runs
+// dry, which is always at a line boundary, so every line arrives as soon as
+// it would have uncompressed.
+//
+// Only the server's output is compressed; what clients send is small.
+final class LineCompression {
+    static final String CAPABILITY = "deflate";
+    static volatile int level = 1;
+
+    // Text the protocol repeats, least common first: deflate finds nearby
+    // matches more cheaply, and the end of the dictionary is nearest
+    static final byte[] DICTIONARY = (
+        "ROOM_LIST|ROOM_PAGE|0|1|ROOM_DIFF|+,waiting,playing,EN|-LEADERBOARD|STATS|ERROR|Message blocked\n"
+        + "SESSION|RESUMED|RESUME_FAILED\nSNAPSHOT|PLAYER_JOINED|PLAYER_LEFT|NEW_HOST|CONFIG_UPDATED|PLAYER_LIST|"
+        + "#FF5733,none\nGAME_START|3\nGAME_END|\nROUND_START|1|3\nDRAWER|CHOOSE_WORD|WORD_SELECTED|ROUND_END|"
+        + "STATE|DELTA|1|JOIN|LEAVE|HOST|RESET\nCONFIG|3,80,8,EN\nSCORES|SCORE|CLOSE_GUESS|CORRECT_GUESS|100\n"
+        + "CLEAR\nHINT|_____\nSTROKE|\nCHAT|Player-\nTIMER|\n"
+        + "DRAW|0,0,0,15;0,0,255,8;0,255,255,3;255,0,255,8;255,175,175,5;255,200,0,15;255,255,0,3;"
+        + "128,128,128,8;0,255,0,5;255,0,0,3\nDRAW|255,255,255,15\nDRAW_BATCH|0,0,0,5;0,0,0,3;0,0,0,8;"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private LineCompression() {
+    }
+
+    // True for a CAPS reply that turns compression on after itself
+    static boolean accepts(String line) {
+        return line.startsWith("CAPS|") && Arrays.asList(line.substring(5).split(",")).contains(CAPABILITY);
+    }
+
+    // Per connection, on its writer. Holds the deflate window, about 256 KB
+    // of native memory, until end().
+    static final class Encoder {
+        private final Deflater deflater = new Deflater(level, true);
+        private byte[] out = new byte[4096];
+        private int length;
+        private long plainBytes;
+        private boolean ended;
+
+        Encoder() {
+            deflater.setDictionary(DICTIONARY);
+        }
+
+        synchronized void write(byte[] line) {
+            if (ended) return;
+            deflater.setInput(line);
+            while (!deflater.needsInput()) {
+                drain(Deflater.NO_FLUSH);
+            }
+            plainBytes += line.length;
+        }
+
+        // Everything written since the last flush, ready to send
+        synchronized byte[] flush() {
+            if (ended) return new byte[0];
+            do {
+                drain(Deflater.SYNC_FLUSH);
+            } while (length == out.length);
+            byte[] wire = Arrays.copyOf(out, length);
+            Metrics.deflatePlainBytes.add(plainBytes);
+            Metrics.deflateWireBytes.add(length);
+            plainBytes = 0;
+            length = 0;
+            return wire;
+        }
+
+        private void drain(int flush) {
+            if (length == out.length) out = Arrays.copyOf(out, out.length * 2);
+            length += deflater.deflate(out, length, out.length - length, flush);
+        }
+
+        synchronized void end() {
+            if (ended) return;
+            ended = true;
+            deflater.end();
+        }
+    }
+
+    // A view of a connection's input: lines, or after PROTO|2 frames, read
+    // plain until startInflating(), then through the inflater. Reads its own
+    // bytes, so nothing read ahead past either switch is lost to a decoder's
+    // buffer.
+    static final class LineReader {
+        private final InputStream in;
+        private byte[] buffer = new byte[16 * 1024];
+        private int position;
+        private int limit;
+        private Inflater inflater;
+        private final byte[] raw = new byte[16 * 1024];
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        // Null at the end of the stream
+        String readLine() throws IOException {
+            line.reset();
+            while (true) {
+                if (position == limit && !fill()) {
+                    return line.size() > 0 ? line.toString("UTF-8") : null;
+                }
+                for (int i = position; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        int end = i > position && buffer[i - 1] == '\r' ? i - 1 : i;
+                        line.write(buffer, position, end - position);
+                        position = i + 1;
+                        return line.toString("UTF-8");
+                    }
+                }
+                line.write(buffer, position, limit - position);
+                position = limit;
+            }
+        }
+
+        // False at the end of the stream
+        boolean readFrame(Frame.Reader frame, int maxLength) throws IOException {
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (position == limit && !fill()) {
+                    if (shift == 0) return false;
+                    throw new EOFException();
+                }
+                byte b = buffer[position++];
+                length |= (b & 0x7F) << shift;
+                if (b >= 0) break;
+                if (shift == 28) throw new IOException("Malformed frame length");
+            }
+            if (length <= 0 || length > maxLength) throw new IOException("Bad frame length " + length);
+            byte[] data = frame.reserve(length);
+            int copied = 0;
+            while (copied < length) {
+                if (position == limit && !fill()) throw new EOFException();
+                int n = Math.min(length - copied, limit - position);
+                System.arraycopy(buffer, position, data, copied, n);
+                position += n;
+                copied += n;
+            }
+            frame.wrap(data, 0, length);
+            return true;
+        }
+
+        // Anything already buffered is the start of the compressed stream
+        void startInflating() {
+            if (inflater != null) return;
+            inflater = new Inflater(true);
+            inflater.setDictionary(DICTIONARY);
+            byte[] pending = Arrays.copyOfRange(buffer, position, limit);
+            inflater.setInput(pending);
+            position = limit = 0;
+        }
+
+        private boolean fill() throws IOException {
+            position = 0;
+            limit = 0;
+            if (inflater == null) {
+                int n = in.read(buffer);
+                if (n <= 0) return false;
+                limit = n;
+                return true;
+            }
+            try {
+                while (true) {
+                    int n = inflater.inflate(buffer);
+                    if (n > 0) {
+                        limit = n;
+                        return true;
+                    }
+                    if (inflater.finished()) return false;
+                    int read = in.read(raw);
+                    if (read <= 0) return false;
+                    inflater.setInput(raw, 0, read);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt compressed stream", e);
+            }
+        }
+
+        void close() {
+            if (inflater != null) inflater.end();
+        }
+    }
+}
@@ -0,0 +1,376 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Plays N rooms of M bots against a server and reports what the players
+// would feel. In each room one bot creates it, the rest join, and the host
+// starts games back to back. The drawer picks a word and moves its mouse at
+// --mouse-hz, sending one DRAW_BATCH per frame; the others guess every
+// --guess-every-ms, wrongly at first and then the word itself.
+//
+// Two latencies are measured, both across the real network path:
+//   DRAW fan-out   from the drawer sending a segment to each player seeing it
+//   guess RTT      from sending GUESS to seeing our own CHAT or CORRECT_GUESS
+// Every segment's color is its number in the room, so receivers can look up
+// when it was sent; all bots share one process and one clock.
+//
+//   java LoadGenerator --port=5555 --rooms=50 --players=8 --duration-s=60
+//   java LoadGenerator --rooms=20 --proxy-latency-ms=40 --proxy-jitter-ms=10 --proxy-loss=0.01
+//   java LoadGenerator --rooms=20 --deflate=true
+//   java LoadGenerator --rooms=20 --frames=true
+final class LoadGenerator {
+    private static final int SENT_SLOTS = 1 << 16;
+
+    private final String host;
+    private final int port;
+    private final int players;
+    private final int rounds;
+    private final int drawTime;
+    private final double segmentsPerFrame;
+    private final long frameMicros;
+    private final long guessEveryMillis;
+    private final String capabilities;
+    private final boolean frames;
+
+    private final ScheduledExecutorService ticker = Executors.newScheduledThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()), task -> {
+            Thread thread = new Thread(task, "load-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    private final List<Room> rooms = new ArrayList<>();
+    private volatile boolean running = true;
+    // Off while rooms are still filling up, so only the steady state counts
+    private volatile boolean measuring;
+
+    private final Metrics.Histogram drawLatency = new Metrics.Histogram();
+    private final Metrics.Histogram guessLatency = new Metrics.Histogram();
+    private final LongAdder segmentsSent = new LongAdder();
+    private final LongAdder segmentsReceived = new LongAdder();
+    private final LongAdder guessesSent = new LongAdder();
+    private final LongAdder correctGuesses = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    LoadGenerator(String host, int port, int players, int rounds, int drawTime, int mouseHz, int frameHz,
+                  long guessEveryMillis, boolean deflate, boolean frames) {
+        this.host = host;
+        this.port = port;
+        this.players = players;
+        this.rounds = rounds;
+        this.drawTime = drawTime;
+        this.segmentsPerFrame = (double) mouseHz / frameHz;
+        this.frameMicros = 1_000_000L / frameHz;
+        this.guessEveryMillis = guessEveryMillis;
+        this.capabilities = StrokeCodec.BATCH_CAPABILITY + "," + RoomState.CAPABILITY
+            + (deflate ? "," + LineCompression.CAPABILITY : "");
+        this.frames = frames;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = ScribbleServer.option(args, "host", "127.0.0.1");
+        int port = ScribbleServer.intOption(args, "port", 5555);
+        int latency = ScribbleServer.intOption(args, "proxy-latency-ms", 0);
+        int jitter = ScribbleServer.intOption(args, "proxy-jitter-ms", 0);
+        double loss = Double.parseDouble(ScribbleServer.option(args, "proxy-loss", "0"));
+        LatencyProxy proxy = null;
+        if (latency > 0 || jitter > 0 || loss > 0) {
+            proxy = new LatencyProxy(host, port, latency, jitter, loss);
+            port = proxy.start(0);
+            host = "127.0.0.1";
+            System.out.println("Through proxy: " + latency + " ms +" + jitter + " ms jitter, " + loss * 100 + "% loss each way");
+        }
+        LoadGenerator load = new LoadGenerator(host, port,
+            ScribbleServer.intOption(args, "players", 8),
+            ScribbleServer.intOption(args, "rounds", 3),
+            ScribbleServer.intOption(args, "draw-time", 30),
+            ScribbleServer.intOption(args, "mouse-hz", 125),
+            ScribbleServer.intOption(args, "frame-hz", 60),
+            ScribbleServer.intOption(args, "guess-every-ms", 2000),
+            Boolean.parseBoolean(ScribbleServer.option(args, "deflate", "false")),
+            Boolean.parseBoolean(ScribbleServer.option(args, "frames", "false")));
+        load.run(ScribbleServer.intOption(args, "rooms", 10), ScribbleServer.intOption(args, "duration-s", 60));
+        if (proxy != null) proxy.close();
+    }
+
+    void run(int roomCount, int seconds) throws InterruptedException {
+        System.out.println("Starting " + roomCount + " rooms x " + players + " players");
+        for (int r = 0; r < roomCount; r++) {
+            Room room = new Room(r);
+            try {
+                room.open();
+                rooms.add(room);
+            } catch (IOException e) {
+                System.out.println("Room " + r + ": " + e.getMessage());
+            }
+        }
+        measuring = true;
+        long[] startCounts = counts();
+        long started = System.nanoTime();
+        long last = started;
+        long[] lastCounts = startCounts;
+        long end = started + TimeUnit.SECONDS.toNanos(seconds);
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(10_000, Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+            long now = System.nanoTime();
+            long[] current = counts();
+            System.out.println(String.format("%5.0fs  %s", (now - started) / 1e9, rates(lastCounts, current, now - last)));
+            last = now;
+            lastCounts = current;
+        }
+        running = false;
+        long elapsed = System.nanoTime() - started;
+        long[] total = counts();
+        for (Room room : rooms) room.close();
+        ticker.shutdownNow();
+
+        System.out.println();
+        System.out.println(rooms.size() + " rooms x " + players + " players for " + seconds + " s");
+        System.out.println("Throughput  " + rates(startCounts, total, elapsed));
+        System.out.println("Totals      " + (total[0] - startCounts[0]) + " segments sent, "
+            + (total[1] - startCounts[1]) + " delivered, " + (total[2] - startCounts[2]) + " guesses ("
+            + (total[3] - startCounts[3]) + " correct), " + games.sum() + " games, " + errors.sum() + " errors, "
+            + disconnects.sum() + " disconnects");
+        System.out.println("DRAW fan-out ms  " + percentiles(drawLatency));
+        System.out.println("Guess RTT ms     " + percentiles(guessLatency));
+    }
+
+    private long[] counts() {
+        long received = 0;
+        for (Room room : rooms) {
+            for (Bot bot : room.bots) received += bot.client.bytesReceived();
+        }
+        return new long[] {segmentsSent.sum(), segmentsReceived.sum(), guessesSent.sum(), correctGuesses.sum(), received};
+    }
+
+    private static String rates(long[] from, long[] to, long nanos) {
+        double seconds = nanos / 1e9;
+        return String.format("segments %.0f/s sent, %.0f/s delivered; guesses %.1f/s; %.0f KB/s received",
+            (to[0] - from[0]) / seconds, (to[1] - from[1]) / seconds, (to[2] - from[2]) / seconds,
+            (to[4] - from[4]) / seconds / 1024);
+    }
+
+    private static String percentiles(Metrics.Histogram histogram) {
+        long[] q = histogram.quantiles(0.5, 0.99, 0.999);
+        return String.format("p50 %.2f  p99 %.2f  p999 %.2f  max %.2f  (n=%d)",
+            q[0] / 1e6, q[1] / 1e6, q[2] / 1e6, histogram.max() / 1e6, histogram.count());
+    }
+
+    private final class Room {
+        final int index;
+        final List<Bot> bots = new ArrayList<>();
+        final CountDownLatch created = new CountDownLatch(1);
+        final AtomicBoolean gameStarted = new AtomicBoolean();
+        volatile String code;
+        volatile String word;
+        // Send time of each segment, by its number
+        final AtomicLongArray sentAt = new AtomicLongArray(SENT_SLOTS);
+        final AtomicInteger nextSegment = new AtomicInteger();
+
+        Room(int index) {
+            this.index = index;
+        }
+
+        void open() throws IOException, InterruptedException {
+            Bot host = new Bot(this, 0);
+            bots.add(host);
+            host.client.connect(host.name, capabilities);
+            host.client.createRoom(true, players, rounds, drawTime);
+            if (!created.await(10, TimeUnit.SECONDS)) throw new IOException("no room code");
+            for (int i = 1; i < players; i++) {
+                Bot bot = new Bot(this, i);
+                bots.add(bot);
+                bot.client.connect(bot.name, capabilities);
+                bot.client.joinRoom(code);
+            }
+        }
+
+        void startGame() {
+            if (running && gameStarted.compareAndSet(false, true)) bots.get(0).client.startGame();
+        }
+
+        void close() {
+            for (Bot bot : bots) {
+                bot.stop();
+                bot.client.close();
+            }
+        }
+    }
+
+    private final class Bot implements ProtocolClient.Listener {
+        final Room room;
+        final int index;
+        final String name;
+        final ProtocolClient client;
+        private ScheduledFuture<?> task;
+        private final Map<String, Long> pendingGuesses = new ConcurrentHashMap<>();
+        private volatile long correctSentAt;
+        // Only the drawer is sent CHOOSE_WORD
+        private volatile boolean choseWord;
+        private int wrongGuesses;
+        private double owedSegments;
+        private int x = 400, y = 300;
+
+        Bot(Room room, int index) {
+            this.room = room;
+            this.index = index;
+            this.name = "bot-" + room.index + "-" + index;
+            this.client = new ProtocolClient(host, port, this, frames);
+        }
+
+        synchronized void stop() {
+            if (task != null) task.cancel(false);
+            task = null;
+        }
+
+        private synchronized void every(long micros, long initialMicros, Runnable action) {
+            stop();
+            task = ticker.scheduleAtFixedRate(() -> {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }, initialMicros, micros, TimeUnit.MICROSECONDS);
+        }
+
+        @Override
+        public void roomJoined(String roomCode, boolean created) {
+            if (created) {
+                room.code = roomCode;
+                room.created.countDown();
+            }
+        }
+
+        @Override
+        public void roomChanged(RoomState state, int changed) {
+            if (index == 0 && (changed & RoomState.ROSTER) != 0 && state.members.size() >= players) room.startGame();
+        }
+
+        @Override
+        public void drawer(String id, String name) {
+            stop();
+            choseWord = false;
+            pendingGuesses.clear();
+        }
+
+        @Override
+        public void chooseWord(String[] words) {
+            choseWord = true;
+            room.word = words[0];
+            ticker.schedule(() -> client.selectWord(0), 300 + ThreadLocalRandom.current().nextInt(500),
+                TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void wordSelected(String masked, int length) {
+            if (choseWord) {
+                every(frameMicros, 0, this::drawFrame);
+            } else {
+                wrongGuesses = 0;
+                long jittered = guessEveryMillis / 2 + ThreadLocalRandom.current().nextLong(guessEveryMillis + 1);
+                every(guessEveryMillis * 1000, jittered * 1000, this::guess);
+            }
+        }
+
+        private void drawFrame() {
+            owedSegments += segmentsPerFrame;
+            StringBuilder batch = new StringBuilder();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (owedSegments >= 1) {
+                owedSegments--;
+                int nx = Math.max(0, Math.min(799, x + random.nextInt(21) - 10));
+                int ny = Math.max(0, Math.min(599, y + random.nextInt(21) - 10));
+                int number = room.nextSegment.getAndIncrement() & 0xFFFFFF;
+                room.sentAt.set(number & (SENT_SLOTS - 1), System.nanoTime());
+                if (batch.length() > 0) batch.append(';');
+                batch.append(ProtocolClient.segment(x, y, nx, ny, number, 5));
+                x = nx;
+                y = ny;
+                segmentsSent.increment();
+            }
+            if (batch.length() > 0) client.drawBatch(batch.toString());
+        }
+
+        private void guess() {
+            String word = room.word;
+            if (word != null && wrongGuesses >= 3 && ThreadLocalRandom.current().nextInt(4) == 0) {
+                stop();
+                correctSentAt = System.nanoTime();
+                client.guess(word);
+            } else {
+                String text = "maybe " + name + " " + wrongGuesses++;
+                pendingGuesses.put(text, System.nanoTime());
+                client.guess(text);
+            }
+            guessesSent.increment();
+        }
+
+        @Override
+        public void segments(StrokeCodec.Segments segments) {
+            long now = System.nanoTime();
+            segments.forEach((x1, y1, x2, y2, number, size) -> {
+                long sent = room.sentAt.get(number & (SENT_SLOTS - 1));
+                if (sent != 0 && measuring) drawLatency.record(now - sent);
+                segmentsReceived.increment();
+            });
+        }
+
+        @Override
+        public void chat(String name, String text) {
+            if (!name.equals(this.name)) return;
+            Long sent = pendingGuesses.remove(text);
+            if (sent != null && measuring) guessLatency.record(System.nanoTime() - sent);
+        }
+
+        @Override
+        public void correctGuess(String id, String name, int points) {
+            if (!id.equals(client.playerId)) return;
+            correctGuesses.increment();
+            long sent = correctSentAt;
+            if (sent != 0 && measuring) guessLatency.record(System.nanoTime() - sent);
+            correctSentAt = 0;
+        }
+
+        @Override
+        public void roundEnded(String word) {
+            stop();
+            choseWord = false;
+            room.word = null;
+        }
+
+        @Override
+        public void gameEnded(String winner, int points) {
+            stop();
+            if (index != 0) return;
+            games.increment();
+            room.gameStarted.set(false);
+            ticker.schedule(room::startGame, 2, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void error(String message) {
+            if (errors.sum() < 10) System.out.println(name + ": " + message);
+            errors.increment();
+        }
+
+        @Override
+        public void disconnected() {
+            stop();
+            if (running) disconnects.increment();
+        }
+    }
+}
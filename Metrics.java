@@ -0,0 +1,325 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+// Counters, gauges and latency histograms for the running server, cheap
+// enough to stay on: recording is a couple of uncontended adds, and all the
+// summing happens when someone looks. Everything is readable over JMX as
+// scribble:type=Metrics, and with --metrics-port as Prometheus text at
+// http://127.0.0.1:<port>/metrics.
+//
+// Commands are keyed by a fixed list of names, so a client sending junk
+// cannot grow the table; anything else counts as "unknown".
+final class Metrics {
+    private static final List<String> COMMANDS = Arrays.asList(
+        "SET_NAME", "SET_AVATAR", "CREATE_ROOM", "JOIN_ROOM", "LIST_ROOMS", "LEADERBOARD", "STATS",
+        "LOBBY_SUBSCRIBE", "LOBBY_UNSUBSCRIBE", "START_GAME", "DRAW", "DRAW_BATCH", "STROKE", "CAPS", "CLEAR",
+        "RESYNC", "SNAPSHOT", "RESUME", "GUESS", "CHAT", "SELECT_WORD", "CONFIGURE", "PROTO"
+    );
+    private static final String UNKNOWN = "unknown";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    // Filled before the server starts and only read afterwards
+    private static final Map<String, Histogram> commands = new LinkedHashMap<>();
+    private static final Map<String, Gauge> gauges = new LinkedHashMap<>();
+
+    static {
+        for (String command : COMMANDS) commands.put(command, new Histogram());
+        commands.put(UNKNOWN, new Histogram());
+    }
+
+    // Recipients per room broadcast, and how long queueing to all of them took
+    static final Histogram fanOut = new Histogram();
+    static final Histogram broadcastNanos = new Histogram();
+    static final LongAdder broadcastBytes = new LongAdder();
+    static final LongAdder connectionsAccepted = new LongAdder();
+    static final LongAdder connectionsClosed = new LongAdder();
+    // Bytes handed to, and sent by, the per-connection deflate streams
+    static final LongAdder deflatePlainBytes = new LongAdder();
+    static final LongAdder deflateWireBytes = new LongAdder();
+
+    // Log-linear buckets as in HdrHistogram: 16 per power of two, so any
+    // recorded value is within about 6% of the bucket it is reported by.
+    // The buckets are counted with plain atomic adds; concurrent recorders
+    // rarely land on the same one.
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // The largest value that falls into the bucket
+        private static long highest(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int magnitude = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long width = 1L << (magnitude - SUB_BITS);
+            return ((SUB_BUCKETS + (long) (bucket % SUB_BUCKETS)) << (magnitude - SUB_BITS)) + width - 1;
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long sum() {
+            return sum.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        // Read bucket by bucket while recording goes on, so the result may
+        // be off by the few values that arrived meanwhile
+        long[] quantiles(double... quantiles) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            long[] values = new long[quantiles.length];
+            if (total == 0) return values;
+            for (int q = 0; q < quantiles.length; q++) {
+                long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+                long seen = 0;
+                for (int i = 0; i < BUCKETS; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) {
+                        values[q] = Math.min(highest(i), max());
+                        break;
+                    }
+                }
+            }
+            return values;
+        }
+    }
+
+    private static final class Gauge {
+        final String help;
+        final LongSupplier value;
+
+        Gauge(String help, LongSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    static void command(String command, long nanos) {
+        Histogram histogram = commands.get(command);
+        (histogram != null ? histogram : commands.get(UNKNOWN)).record(nanos);
+    }
+
+    // bytes is the total over every recipient
+    static void broadcast(int recipients, long bytes, long nanos) {
+        fanOut.record(recipients);
+        broadcastBytes.add(bytes);
+        broadcastNanos.record(nanos);
+    }
+
+    // Gauges are read when metrics are asked for, never kept up to date
+    static void gauge(String name, String help, LongSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    // Every value as one flat name -> number map, for JMX
+    static Map<String, Long> values() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().value.getAsLong());
+        }
+        values.put("connectionsAccepted", connectionsAccepted.sum());
+        values.put("connectionsClosed", connectionsClosed.sum());
+        values.put("broadcastBytes", broadcastBytes.sum());
+        values.put("deflatePlainBytes", deflatePlainBytes.sum());
+        values.put("deflateWireBytes", deflateWireBytes.sum());
+        summarize(values, "fanOut", fanOut);
+        summarize(values, "broadcastNanos", broadcastNanos);
+        for (Map.Entry<String, Histogram> command : commands.entrySet()) {
+            summarize(values, "command." + command.getKey() + ".nanos", command.getValue());
+        }
+        return values;
+    }
+
+    private static void summarize(Map<String, Long> values, String name, Histogram histogram) {
+        long[] quantiles = histogram.quantiles(0.5, 0.99);
+        values.put(name + ".count", histogram.count());
+        values.put(name + ".p50", quantiles[0]);
+        values.put(name + ".p99", quantiles[1]);
+        values.put(name + ".max", histogram.max());
+    }
+
+    static String prometheus() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            String name = "scribble_" + gauge.getKey();
+            header(out, name, gauge.getValue().help, "gauge");
+            out.append(name).append(' ').append(gauge.getValue().value.getAsLong()).append('\n');
+        }
+        counter(out, "scribble_connections_accepted_total", "Connections accepted", connectionsAccepted);
+        counter(out, "scribble_connections_closed_total", "Connections closed", connectionsClosed);
+        counter(out, "scribble_broadcast_bytes_total", "Bytes queued by room broadcasts, all recipients",
+            broadcastBytes);
+        counter(out, "scribble_deflate_plain_bytes_total", "Bytes compressed for clients that negotiated deflate",
+            deflatePlainBytes);
+        counter(out, "scribble_deflate_wire_bytes_total", "Compressed bytes sent to those clients",
+            deflateWireBytes);
+        header(out, "scribble_broadcast_recipients", "Recipients per room broadcast", "summary");
+        summary(out, "scribble_broadcast_recipients", "", fanOut, false);
+        header(out, "scribble_broadcast_seconds", "Time to queue a room broadcast to every recipient", "summary");
+        summary(out, "scribble_broadcast_seconds", "", broadcastNanos, true);
+        header(out, "scribble_command_seconds", "Time to handle a client command on its connection", "summary");
+        for (Map.Entry<String, Histogram> command : commands.entrySet()) {
+            summary(out, "scribble_command_seconds", "command=\"" + command.getKey() + "\"", command.getValue(), true);
+        }
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, LongAdder counter) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(counter.sum()).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, Histogram histogram, boolean nanos) {
+        long[] values = histogram.quantiles(QUANTILES);
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (int q = 0; q < QUANTILES.length; q++) {
+            out.append(name).append("{").append(prefix).append("quantile=\"").append(QUANTILES[q]).append("\"} ")
+                .append(format(values[q], nanos)).append('\n');
+        }
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(suffix).append(' ').append(format(histogram.sum(), nanos)).append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(histogram.count()).append('\n');
+    }
+
+    // Nanoseconds go out as exact decimal seconds
+    private static String format(long value, boolean nanos) {
+        return nanos ? BigDecimal.valueOf(value, 9).stripTrailingZeros().toPlainString() : Long.toString(value);
+    }
+
+    static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName("scribble:type=Metrics"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Only on the loopback interface; put a proxy in front to expose it
+    static void serve(int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "metrics-http");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            server.start();
+            System.out.println("Metrics on http://127.0.0.1:" + port + "/metrics");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Read-only attributes, one per value; the set is fixed once the server
+    // has registered its gauges
+    private static final class Bean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = values().get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Long value = values.get(attribute);
+                if (value != null) list.add(new Attribute(attribute, value));
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Long> values = values();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (String name : values.keySet()) {
+                attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Scribble server metrics", attributes,
+                null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Selector-based network engine: a handful of I/O loops multiplex every
+// connection, so idle players cost a SelectionKey instead of a thread.
+class NioEngine {
+    static final int BUFFER_SIZE = 16 * 1024;
+    static final int MAX_LINE = 64 * 1024;
+    private static final int POOL_LIMIT = 64;
+    // Compressed output is flushed at least this often, in plain bytes
+    private static final int DEFLATE_BATCH_BYTES = 256 * 1024;
+
+    private final int port;
+    private final IoLoop[] loops;
+
+    NioEngine(int port, int ioThreads) throws IOException {
+        this.port = port;
+        this.loops = new IoLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(i);
+        }
+    }
+
+    void run() throws IOException {
+        for (IoLoop loop : loops) {
+            loop.start();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), 1024);
+            int next = 0;
+            while (true) {
+                SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    static final class IoLoop extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+        // Loop-confined, so neither needs synchronization
+        private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+        private final byte[] lineScratch = new byte[MAX_LINE];
+
+        IoLoop(int index) throws IOException {
+            super("scribble-io-" + index);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    ScribbleServer.clients.add(connection.handler);
+                    Metrics.connectionsAccepted.increment();
+                } catch (ClosedChannelException e) {
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != this && wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    if (tasks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+                    wakeupPending.set(false);
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) continue;
+                        if (key.isReadable()) connection.onReadable();
+                        if (key.isValid() && key.isWritable()) connection.flush();
+                    }
+                    // Flushes queued while handling reads run in the same pass
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        ByteBuffer acquire() {
+            ByteBuffer buffer = pool.pollFirst();
+            return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        void release(ByteBuffer buffer) {
+            buffer.clear();
+            if (pool.size() < POOL_LIMIT) pool.addFirst(buffer);
+        }
+    }
+
+    static final class Connection {
+        private final IoLoop loop;
+        private final SocketChannel channel;
+        final ScribbleServer.ClientHandler handler;
+        private SelectionKey key;
+        private final OutboundQueue outbound;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Runnable flushTask = this::flush;
+        // Only held while the socket is back-pressured or a line spans reads
+        private ByteBuffer pendingWrite;
+        private byte[] carry;
+        // Set on the loop once the client has accepted deflate
+        private volatile LineCompression.Encoder deflater;
+        private byte[] partial;
+        private int partialLength;
+        private final Frame.Reader frame = new Frame.Reader();
+
+        Connection(IoLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            this.handler = new ScribbleServer.ClientHandler(this);
+            this.outbound = handler.outbound;
+        }
+
+        // Called after the handler queued something; the loop does the write
+        void requestFlush() {
+            if (closed.get()) return;
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(flushTask);
+            }
+        }
+
+        private void onReadable() {
+            ByteBuffer buffer = loop.acquire();
+            try {
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    close();
+                    return;
+                }
+                buffer.flip();
+                if (handler.framed) {
+                    readFrames(buffer);
+                } else {
+                    frameLines(buffer);
+                }
+            } catch (IOException e) {
+                System.out.println("Client disconnected");
+                close();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                close();
+            } finally {
+                loop.release(buffer);
+            }
+        }
+
+        private void frameLines(ByteBuffer buffer) {
+            int start = buffer.position();
+            int limit = buffer.limit();
+            for (int i = start; i < limit && !closed.get(); i++) {
+                if (buffer.get(i) != '\n') continue;
+                int length = i - start;
+                byte[] scratch = loop.lineScratch;
+                int total = partialLength + length;
+                if (total > MAX_LINE) {
+                    close();
+                    return;
+                }
+                if (partialLength > 0) {
+                    System.arraycopy(partial, 0, scratch, 0, partialLength);
+                }
+                buffer.position(start);
+                buffer.get(scratch, partialLength, length);
+                partial = null;
+                partialLength = 0;
+                if (total > 0 && scratch[total - 1] == '\r') total--;
+                handler.processMessage(new String(scratch, 0, total, StandardCharsets.UTF_8));
+                start = i + 1;
+                if (handler.framed) {
+                    // PROTO|2 was accepted; the rest of the read is frames
+                    buffer.position(start);
+                    readFrames(buffer);
+                    return;
+                }
+            }
+            int remaining = limit - start;
+            if (remaining > 0 && !closed.get()) {
+                if (partialLength + remaining > MAX_LINE) {
+                    close();
+                    return;
+                }
+                if (partial == null || partial.length < partialLength + remaining) {
+                    byte[] grown = new byte[Math.max(256, (partialLength + remaining) * 2)];
+                    if (partial != null) System.arraycopy(partial, 0, grown, 0, partialLength);
+                    partial = grown;
+                }
+                buffer.position(start);
+                buffer.get(partial, partialLength, remaining);
+                partialLength += remaining;
+            }
+        }
+
+        // Whatever is left of the last read comes first; every complete frame
+        // is handed to the handler, decoded straight from this buffer
+        private void readFrames(ByteBuffer buffer) {
+            int incoming = buffer.remaining();
+            if (partial == null || partial.length < partialLength + incoming) {
+                byte[] grown = new byte[Math.max(256, (partialLength + incoming) * 2)];
+                if (partial != null) System.arraycopy(partial, 0, grown, 0, partialLength);
+                partial = grown;
+            }
+            buffer.get(partial, partialLength, incoming);
+            partialLength += incoming;
+            int position = 0;
+            while (position < partialLength && !closed.get()) {
+                int length = 0;
+                int header = 0;
+                boolean complete = false;
+                for (int shift = 0; position + header < partialLength; shift += 7) {
+                    byte b = partial[position + header++];
+                    length |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        complete = true;
+                        break;
+                    }
+                    if (shift == 28) {
+                        close();
+                        return;
+                    }
+                }
+                if (!complete) break;
+                if (length <= 0 || length > Frame.MAX_CLIENT_FRAME) {
+                    close();
+                    return;
+                }
+                if (position + header + length > partialLength) break;
+                handler.processFrame(frame.wrap(partial, position + header, length));
+                position += header + length;
+            }
+            partialLength -= position;
+            System.arraycopy(partial, position, partial, 0, partialLength);
+        }
+
+        private void flush() {
+            flushScheduled.set(false);
+            if (closed.get()) return;
+            try {
+                if (pendingWrite != null) {
+                    channel.write(pendingWrite);
+                    if (pendingWrite.hasRemaining()) return;
+                    if (pendingWrite.isDirect()) loop.release(pendingWrite);
+                    pendingWrite = null;
+                }
+                while (carry != null || (carry = outbound.poll()) != null) {
+                    if (carry == OutboundQueue.START_DEFLATE) {
+                        carry = null;
+                        if (deflater == null) deflater = new LineCompression.Encoder();
+                        continue;
+                    }
+                    if (deflater != null) {
+                        ByteBuffer compressed = ByteBuffer.wrap(deflate());
+                        channel.write(compressed);
+                        if (compressed.hasRemaining()) {
+                            pendingWrite = compressed;
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            return;
+                        }
+                        continue;
+                    }
+                    ByteBuffer buffer = loop.acquire();
+                    // Packets are shared between recipients, so lines are only read
+                    while (carry != null && carry != OutboundQueue.START_DEFLATE
+                        && (carry.length <= buffer.remaining() || buffer.position() == 0)) {
+                        if (carry.length > buffer.remaining()) {
+                            // Oversized message: write it straight from the heap
+                            loop.release(buffer);
+                            buffer = ByteBuffer.wrap(carry);
+                            buffer.position(carry.length);
+                            carry = null;
+                            break;
+                        }
+                        buffer.put(carry);
+                        carry = outbound.poll();
+                    }
+                    buffer.flip();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        pendingWrite = buffer;
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    if (buffer.isDirect()) loop.release(buffer);
+                }
+                if (key.isValid()) key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        // Compresses queued lines up to a budget and flushes them as one write
+        private byte[] deflate() {
+            long budget = DEFLATE_BATCH_BYTES;
+            do {
+                deflater.write(carry);
+                budget -= carry.length;
+                carry = outbound.poll();
+            } while (carry != null && carry != OutboundQueue.START_DEFLATE && budget > 0);
+            return deflater.flush();
+        }
+
+        // For other threads, such as a room loop dropping a slow client:
+        // the close, and the cleanup it runs, happen on this connection's loop
+        void closeLater() {
+            loop.execute(this::close);
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            if (key != null) key.cancel();
+            closeQuietly(channel);
+            LineCompression.Encoder compressing = deflater;
+            if (compressing != null) compressing.end();
+            handler.cleanup();
+        }
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
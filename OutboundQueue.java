@@ -0,0 +1,162 @@
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Per-connection send queue with a byte budget. TIMER and HINT are always
+// latest-value-wins; what happens to strokes once a client is over the soft
+// budget depends on the policy, and a client that stays over the hard budget
+// for longer than the lag timeout is disconnected.
+final class OutboundQueue {
+    enum Policy { LOD, DROP, DISCONNECT }
+
+    static volatile Policy policy = Policy.LOD;
+    static volatile long softBudgetBytes = 64 * 1024;
+    static volatile long hardBudgetBytes = 512 * 1024;
+    static volatile long lagTimeoutMillis = 15000;
+
+    static final Object CLOSE = new Object();
+    // Queued after the CAPS reply that accepts deflate; the writer compresses
+    // every line after it. Compared by identity, and empty if written as is.
+    static final byte[] START_DEFLATE = new byte[0];
+
+    // Entries are byte[] lines, a coalescing Slot, or CLOSE
+    private final BlockingQueue<Object> entries = new LinkedBlockingQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Slot timerSlot = new Slot();
+    private final Slot hintSlot = new Slot();
+    private volatile long behindSince = -1;
+    // Set once a stroke was skipped; the next one must restate its start point
+    private volatile boolean strokeGap;
+    private volatile boolean closed;
+    // Set once the client is on protocol version 2
+    private volatile boolean framed;
+
+    private static final class Slot {
+        final AtomicReference<byte[]> latest = new AtomicReference<>();
+    }
+
+    // Returns false when the client is too far behind and must be dropped
+    boolean offer(Packet packet) {
+        if (closed) return true;
+        long queued = queuedBytes.get();
+        if (queued > softBudgetBytes) {
+            long now = System.currentTimeMillis();
+            if (behindSince < 0) behindSince = now;
+            if (policy == Policy.DISCONNECT
+                || (queued > hardBudgetBytes && now - behindSince > lagTimeoutMillis)) {
+                return false;
+            }
+        } else {
+            behindSince = -1;
+        }
+
+        switch (packet.kind) {
+            case Packet.TIMER:
+                coalesce(timerSlot, encoded(packet));
+                return true;
+            case Packet.HINT:
+                coalesce(hintSlot, encoded(packet));
+                return true;
+            case Packet.STROKE:
+                if (queued > hardBudgetBytes || (queued > softBudgetBytes && policy == Policy.DROP)) {
+                    strokeGap = true;
+                    return true;
+                }
+                if (queued > softBudgetBytes || strokeGap) {
+                    strokeGap = false;
+                    add(encoded(packet.lod()));
+                    return true;
+                }
+                add(encoded(packet));
+                return true;
+            default:
+                add(encoded(packet));
+                return true;
+        }
+    }
+
+    // The client's stroke decoder has no pen position, e.g. after a canvas
+    // snapshot, so the next stroke goes out self-contained
+    void restartStrokes() {
+        strokeGap = true;
+    }
+
+    private byte[] encoded(Packet packet) {
+        return framed ? packet.frame() : packet.bytes;
+    }
+
+    private void add(byte[] line) {
+        queuedBytes.addAndGet(line.length);
+        depth.incrementAndGet();
+        entries.add(line);
+    }
+
+    private void coalesce(Slot slot, byte[] line) {
+        byte[] previous = slot.latest.getAndSet(line);
+        if (previous == null) {
+            queuedBytes.addAndGet(line.length);
+            depth.incrementAndGet();
+            entries.add(slot);
+        } else {
+            queuedBytes.addAndGet(line.length - previous.length);
+        }
+    }
+
+    byte[] poll() {
+        Object entry;
+        while ((entry = entries.poll()) != null) {
+            byte[] line = resolve(entry);
+            if (line != null) return line;
+        }
+        return null;
+    }
+
+    // Blocks until a line is available; returns null once closed
+    byte[] take() throws InterruptedException {
+        Object entry;
+        byte[] line;
+        do {
+            entry = entries.take();
+            if (entry == CLOSE) return null;
+            line = resolve(entry);
+        } while (line == null);
+        return line;
+    }
+
+    private byte[] resolve(Object entry) {
+        if (entry == null || entry == CLOSE) return null;
+        byte[] line = entry instanceof Slot ? ((Slot) entry).latest.getAndSet(null) : (byte[]) entry;
+        if (line == null) return null;
+        queuedBytes.addAndGet(-line.length);
+        depth.decrementAndGet();
+        return line;
+    }
+
+    void useFrames() {
+        framed = true;
+    }
+
+    void startDeflate() {
+        add(START_DEFLATE);
+    }
+
+    void close() {
+        closed = true;
+        entries.add(CLOSE);
+    }
+
+    int depth() {
+        return depth.get();
+    }
+
+    long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    boolean isLagging() {
+        return behindSince >= 0 && queuedBytes.get() > softBudgetBytes;
+    }
+}
@@ -0,0 +1,61 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+// An outbound line encoded to bytes once and shared by every recipient's
+// queue; the array is never modified after construction.
+final class Packet {
+    static final int CONTROL = 0;
+    static final int TIMER = 1;
+    static final int HINT = 2;
+    static final int STROKE = 3;
+
+    final String text;
+    final byte[] bytes;
+    final int kind;
+    // Stroke packets can offer a downsampled, self-contained variant for
+    // clients that have fallen behind; built at most once, on first use
+    private final Supplier<Packet> lodFactory;
+    private volatile Packet lod;
+    private volatile byte[] frame;
+
+    private Packet(String text, int kind, Supplier<Packet> lodFactory) {
+        byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+        this.bytes = Arrays.copyOf(encoded, encoded.length + 1);
+        this.bytes[encoded.length] = '\n';
+        this.text = text;
+        this.kind = kind;
+        this.lodFactory = lodFactory;
+    }
+
+    static Packet of(String message) {
+        int kind = CONTROL;
+        if (message.startsWith("TIMER|")) kind = TIMER;
+        else if (message.startsWith("HINT|")) kind = HINT;
+        return new Packet(message, kind, null);
+    }
+
+    static Packet stroke(String message, Supplier<Packet> lodFactory) {
+        return new Packet(message, STROKE, lodFactory);
+    }
+
+    // The message for protocol version 2 clients, framed on first use
+    byte[] frame() {
+        byte[] result = frame;
+        if (result == null) {
+            result = Frame.encode(text, true);
+            frame = result;
+        }
+        return result;
+    }
+
+    Packet lod() {
+        if (lodFactory == null) return this;
+        Packet result = lod;
+        if (result == null) {
+            result = lodFactory.get();
+            lod = result;
+        }
+        return result;
+    }
+}
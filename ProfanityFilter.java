@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Blocked-term matcher compiled into an Aho-Corasick automaton, so a line is
+// scanned once however many terms there are. Terms and text go through the
+// same folding (case, accents, common leetspeak) and punctuation between
+// letters is skipped, so "B.@.d" meets "bad". A term only counts when it
+// starts a word, which keeps "class" and "glasses" clean.
+//
+// Term lists are the *.txt files of a directory, one term per line with #
+// comments. The directory is re-read when it changes and the new automaton
+// is swapped in atomically; readers never see a half-built one.
+final class ProfanityFilter {
+    static final List<String> DEFAULT_TERMS = Arrays.asList("badword1", "badword2", "inappropriate");
+    private static final AtomicReference<ProfanityFilter> current =
+        new AtomicReference<>(new ProfanityFilter(DEFAULT_TERMS));
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "profanity-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static long loadedStamp = -1;
+
+    // Dense transition table: next[state * alphabetSize + symbol]
+    private final int[] next;
+    private final int alphabetSize;
+    private final int[] latinSymbols = new int[0x250];
+    private final char[] otherChars;
+    private final int[] otherSymbols;
+    // Length of the term ending at a state (0 if none), and the next state
+    // down the failure chain that ends a term
+    private final int[] termLength;
+    private final int[] outputLink;
+    final int termCount;
+
+    ProfanityFilter(List<String> terms) {
+        List<char[]> folded = new ArrayList<>();
+        Map<Character, Integer> alphabet = new HashMap<>();
+        for (String term : terms) {
+            char[] chars = foldTerm(term);
+            if (chars.length == 0) continue;
+            folded.add(chars);
+            for (char c : chars) alphabet.putIfAbsent(c, alphabet.size() + 1);
+        }
+        termCount = folded.size();
+        // Symbol 0 stands for every character no term uses
+        alphabetSize = alphabet.size() + 1;
+        List<Character> others = new ArrayList<>();
+        for (Map.Entry<Character, Integer> entry : alphabet.entrySet()) {
+            char c = entry.getKey();
+            if (c < latinSymbols.length) latinSymbols[c] = entry.getValue();
+            else others.add(c);
+        }
+        others.sort(null);
+        otherChars = new char[others.size()];
+        otherSymbols = new int[others.size()];
+        for (int i = 0; i < others.size(); i++) {
+            otherChars[i] = others.get(i);
+            otherSymbols[i] = alphabet.get(otherChars[i]);
+        }
+
+        // Trie first, with -1 for missing edges
+        int capacity = 1;
+        for (char[] term : folded) capacity += term.length;
+        int[] trie = new int[capacity * alphabetSize];
+        Arrays.fill(trie, -1);
+        int[] length = new int[capacity];
+        int states = 1;
+        for (char[] term : folded) {
+            int state = 0;
+            for (char c : term) {
+                int edge = state * alphabetSize + symbol(c);
+                if (trie[edge] < 0) trie[edge] = states++;
+                state = trie[edge];
+            }
+            length[state] = term.length;
+        }
+
+        // Breadth-first: fill missing edges from the failure state and link
+        // each state to the nearest term-ending state on its failure chain
+        next = Arrays.copyOf(trie, states * alphabetSize);
+        termLength = Arrays.copyOf(length, states);
+        outputLink = new int[states];
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        outputLink[0] = -1;
+        for (int s = 0; s < alphabetSize; s++) {
+            int child = next[s];
+            if (child < 0) {
+                next[s] = 0;
+            } else {
+                fail[child] = 0;
+                outputLink[child] = -1;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int s = 0; s < alphabetSize; s++) {
+                int edge = state * alphabetSize + s;
+                int child = next[edge];
+                int fallback = next[fail[state] * alphabetSize + s];
+                if (child < 0) {
+                    next[edge] = fallback;
+                } else {
+                    fail[child] = fallback;
+                    outputLink[child] = termLength[fallback] > 0 ? fallback : outputLink[fallback];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    static ProfanityFilter current() {
+        return current.get();
+    }
+
+    static boolean containsProfanity(String text) {
+        return current.get().matches(text);
+    }
+
+    boolean matches(String text) {
+        int state = 0;
+        // Bit n is set when the symbol n steps back started a word
+        long wordStarts = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = fold(text.charAt(i));
+            boolean startsWord = false;
+            if (Character.isLetterOrDigit(c)) {
+                startsWord = !inWord;
+                inWord = true;
+            } else if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                // Runs of whitespace read as one space, which multi-word terms use
+                if (!inWord) continue;
+                inWord = false;
+                c = ' ';
+            } else {
+                // Punctuation inside a word is ignored
+                continue;
+            }
+            wordStarts = (wordStarts << 1) | (startsWord ? 1 : 0);
+            state = next[state * alphabetSize + symbol(c)];
+            for (int end = termLength[state] > 0 ? state : outputLink[state]; end > 0; end = outputLink[end]) {
+                int back = termLength[end] - 1;
+                if (back >= 64 || (wordStarts >>> back & 1) != 0) return true;
+            }
+        }
+        return false;
+    }
+
+    private int symbol(char c) {
+        if (c < latinSymbols.length) return latinSymbols[c];
+        int i = Arrays.binarySearch(otherChars, c);
+        return i >= 0 ? otherSymbols[i] : 0;
+    }
+
+    private static char[] foldTerm(String term) {
+        StringBuilder out = new StringBuilder(term.length());
+        for (char c : GuessMatcher.fold(term)) {
+            char f = fold(c);
+            if (Character.isLetterOrDigit(f) || f == ' ') out.append(f);
+        }
+        char[] chars = new char[out.length()];
+        out.getChars(0, out.length(), chars, 0);
+        return chars;
+    }
+
+    // Case and accents as for guesses, then the usual digit and symbol
+    // stand-ins for letters
+    static char fold(char c) {
+        switch (c) {
+            case '0': return 'o';
+            case '1': case '!': case '|': return 'i';
+            case '3': return 'e';
+            case '4': case '@': return 'a';
+            case '5': case '$': return 's';
+            case '7': case '+': return 't';
+            case '8': return 'b';
+            default: return GuessMatcher.foldChar(c);
+        }
+    }
+
+    // Loads the directory now and re-checks it every few seconds
+    static void watch(Path directory) {
+        reloadIfChanged(directory);
+        ScribbleServer.timers.schedule(5000, () -> loader.execute(() -> watch(directory)));
+    }
+
+    private static void reloadIfChanged(Path directory) {
+        List<Path> files = new ArrayList<>();
+        long stamp = 0;
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.txt")) {
+                for (Path file : stream) {
+                    files.add(file);
+                    stamp = stamp * 31 + Files.getLastModifiedTime(file).toMillis() + file.getFileName().hashCode();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        if (stamp == loadedStamp) return;
+        loadedStamp = stamp;
+        List<String> terms = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) terms.add(line);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (files.isEmpty()) terms = DEFAULT_TERMS;
+        ProfanityFilter filter = new ProfanityFilter(terms);
+        current.set(filter);
+        System.out.println("Profanity filter: " + filter.termCount + " terms from " + files.size() + " lists");
+    }
+}
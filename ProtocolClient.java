@@ -0,0 +1,478 @@
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+// The client side of the protocol without any UI: one connection, a reader
+// thread that decodes every server message into a Listener call, and a
+// method per command. Keeps what a client has to track itself: its id, the
+// accepted capabilities, the room it is in, the session token and last
+// numbered message for RESUME, and the room's roster as a RoomState
+// (asking for a RESYNC on a gap). Listener calls come on the reader thread;
+// the send methods may be called from any thread. Speaks protocol version 2
+// when asked to and the server agrees.
+final class ProtocolClient {
+
+    static final String ALL_CAPABILITIES = String.join(",", StrokeCodec.CAPABILITY, StrokeCodec.BATCH_CAPABILITY,
+        CanvasRaster.CAPABILITY, Session.CAPABILITY, RoomState.CAPABILITY, LineCompression.CAPABILITY);
+
+    // Every method has a default, so a listener only overrides what it uses
+    interface Listener {
+        default void nameSet(String playerId) {}
+        default void capabilities(Set<String> accepted) {}
+        default void roomJoined(String roomCode, boolean created) {}
+        default void roomList(String[] entries) {}
+        default void roomPage(int page, int pages, String[] entries) {}
+        default void roomDiff(String[] diffs) {}
+        default void leaderboard(String[] entries) {}
+        default void stats(String[] fields) {}
+        default void playerJoined(String name, String id) {}
+        default void playerLeft(String id) {}
+        // Roster, host, settings or scores changed; which of them is a
+        // RoomState flag, or everything for PLAYER_LIST and SCORES
+        default void roomChanged(RoomState state, int changed) {}
+        default void gameStarted(int rounds) {}
+        default void roundStarted(int round, int rounds) {}
+        default void drawer(String id, String name) {}
+        default void chooseWord(String[] words) {}
+        default void wordSelected(String masked, int length) {}
+        default void timer(int secondsLeft) {}
+        default void hint(String masked) {}
+        // DRAW and DRAW_BATCH; only valid during the call
+        default void segments(StrokeCodec.Segments segments) {}
+        default void stroke(byte[] data) {}
+        default void clear() {}
+        default void snapshot(byte[] png) {}
+        default void chat(String name, String text) {}
+        default void closeGuess(String guess) {}
+        default void correctGuess(String id, String name, int points) {}
+        default void roundEnded(String word) {}
+        default void gameEnded(String winner, int points) {}
+        default void resumed(String roomCode, String playerId) {}
+        default void resumeFailed() {}
+        default void error(String message) {}
+        default void disconnected() {}
+        // Anything not decoded above, whole
+        default void other(String message) {}
+    }
+
+    private final String host;
+    private final int port;
+    private final Listener listener;
+    private final boolean requestFrames;
+    private Socket socket;
+    private OutputStream out;
+    // Replaced by resume(); an older reader still winding down checks it
+    private volatile LineCompression.LineReader in;
+    // On protocol version 2 for the current connection
+    volatile boolean framed;
+    // Bytes read off the socket, compressed or not, over every connection
+    private final LongAdder bytesReceived = new LongAdder();
+
+    volatile String playerId;
+    volatile String roomCode;
+    volatile String sessionToken;
+    volatile long lastSeq;
+    volatile Set<String> capabilities = Collections.emptySet();
+    // Confined to the reader thread
+    final RoomState roomState = new RoomState();
+    private final StrokeCodec.Segments segments = new StrokeCodec.Segments();
+
+    ProtocolClient(String host, int port, Listener listener) {
+        this(host, port, listener, false);
+    }
+
+    ProtocolClient(String host, int port, Listener listener, boolean requestFrames) {
+        this.host = host;
+        this.port = port;
+        this.listener = listener;
+        this.requestFrames = requestFrames;
+    }
+
+    // Connects, asks for the given capabilities (comma-separated, or null
+    // for none) and starts reading
+    void connect(String name, String capabilities) throws IOException {
+        open();
+        if (capabilities != null) send("CAPS|" + capabilities);
+        send("SET_NAME|" + name);
+        startReader(name);
+    }
+
+    // Reconnects after a drop and asks for the seat back and every numbered
+    // message after the last one seen
+    void resume(String capabilities) throws IOException {
+        if (sessionToken == null || roomCode == null) throw new IOException("Nothing to resume");
+        // Detached first, so the old reader knows it was replaced
+        in = null;
+        closeQuietly();
+        open();
+        if (capabilities != null) send("CAPS|" + capabilities);
+        send("RESUME|" + sessionToken + "|" + lastSeq + "|" + roomCode);
+        startReader("resumed");
+    }
+
+    private synchronized void open() throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        out = new BufferedOutputStream(socket.getOutputStream());
+        in = new LineCompression.LineReader(new FilterInputStream(socket.getInputStream()) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) bytesReceived.add(n);
+                return n;
+            }
+        });
+        framed = requestFrames && Frame.handshake(socket, out, in);
+    }
+
+    private void startReader(String name) {
+        LineCompression.LineReader reader = in;
+        Thread thread = new Thread(() -> read(reader), "protocol-client-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void read(LineCompression.LineReader in) {
+        Frame.Reader frame = new Frame.Reader();
+        try {
+            while (true) {
+                if (framed) {
+                    if (!in.readFrame(frame, Frame.MAX_SERVER_FRAME)) break;
+                    dispatch(frame);
+                    if (frame.opcode() == Frame.CAPS && capabilities.contains(LineCompression.CAPABILITY)) {
+                        in.startInflating();
+                    }
+                } else {
+                    String message = in.readLine();
+                    if (message == null) break;
+                    if (LineCompression.accepts(message)) in.startInflating();
+                    dispatch(message);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Closed by us or by the server, or a malformed frame
+        } finally {
+            in.close();
+        }
+        // A reader closed by resume() has been replaced, not disconnected
+        if (in == this.in) listener.disconnected();
+    }
+
+    // The frequent messages, decoded from their fields; the rest are
+    // handled as text
+    private static final Frame.Table<ProtocolClient> FRAMES = new Frame.Table<ProtocolClient>()
+        .on(Frame.DRAW, ProtocolClient::segments)
+        .on(Frame.DRAW_BATCH, ProtocolClient::segments)
+        .on(Frame.STROKE, (client, frame) -> client.listener.stroke(frame.bytes()))
+        .on(Frame.CHAT, (client, frame) -> client.listener.chat(frame.string(), frame.hasMore() ? frame.string() : ""))
+        .on(Frame.TIMER, (client, frame) -> client.listener.timer(frame.integer()))
+        .on(Frame.HINT, (client, frame) -> client.listener.hint(frame.string()))
+        .on(Frame.CLOSE_GUESS, (client, frame) -> client.listener.closeGuess(frame.string()))
+        .on(Frame.CORRECT_GUESS, (client, frame) ->
+            client.listener.correctGuess(frame.string(), frame.string(), frame.integer()))
+        .on(Frame.CLEAR, (client, frame) -> client.listener.clear())
+        .on(Frame.DRAWER, (client, frame) -> client.listener.drawer(frame.string(), frame.string()))
+        .on(Frame.WORD_SELECTED, (client, frame) -> client.listener.wordSelected(frame.string(), frame.integer()))
+        .on(Frame.ROUND_START, (client, frame) -> client.listener.roundStarted(frame.integer(), frame.integer()))
+        .on(Frame.ROUND_END, (client, frame) -> client.listener.roundEnded(frame.string()));
+
+    void dispatch(Frame.Reader frame) {
+        if (frame.sequence() >= 0) lastSeq = Math.max(lastSeq, frame.sequence());
+        if (FRAMES.dispatch(this, frame)) return;
+        if (frame.opcode() == Frame.LINE) {
+            dispatch(frame.string());
+        } else {
+            handle(frame.parts(true));
+        }
+    }
+
+    private void segments(Frame.Reader frame) {
+        segments.clear();
+        frame.segments(segments);
+        listener.segments(segments);
+    }
+
+    // Also usable by tools that replay recorded traffic
+    void dispatch(String message) {
+        if (message.startsWith("@")) {
+            int bar = message.indexOf('|');
+            if (bar > 0) {
+                try {
+                    lastSeq = Math.max(lastSeq, Long.parseLong(message.substring(1, bar)));
+                } catch (NumberFormatException ignored) {
+                }
+                message = message.substring(bar + 1);
+            }
+        }
+        handle(message.split("\\|"));
+    }
+
+    private void handle(String[] parts) {
+        switch (parts[0]) {
+            case "NAME_SET":
+                playerId = parts[1];
+                listener.nameSet(playerId);
+                break;
+            case "SESSION":
+                sessionToken = parts[1];
+                break;
+            case "RESUMED":
+                playerId = parts[2];
+                listener.resumed(parts[1], parts[2]);
+                break;
+            case "RESUME_FAILED":
+                sessionToken = null;
+                roomCode = null;
+                listener.resumeFailed();
+                break;
+            case "CAPS":
+                capabilities = parts.length > 1
+                    ? new HashSet<>(Arrays.asList(parts[1].split(","))) : Collections.<String>emptySet();
+                listener.capabilities(capabilities);
+                break;
+            case "ROOM_CREATED":
+            case "ROOM_JOINED":
+                roomCode = parts[1];
+                roomState.clear();
+                listener.roomJoined(parts[1], parts[0].equals("ROOM_CREATED"));
+                break;
+            case "ROOM_LIST":
+                listener.roomList(Arrays.copyOfRange(parts, 1, parts.length));
+                break;
+            case "ROOM_PAGE":
+                listener.roomPage(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                    Arrays.copyOfRange(parts, 3, parts.length));
+                break;
+            case "ROOM_DIFF":
+                listener.roomDiff(Arrays.copyOfRange(parts, 1, parts.length));
+                break;
+            case "LEADERBOARD":
+                listener.leaderboard(Arrays.copyOfRange(parts, 1, parts.length));
+                break;
+            case "STATS":
+                listener.stats(parts[1].split(","));
+                break;
+            case "PLAYER_JOINED":
+                listener.playerJoined(parts[1], parts[2]);
+                break;
+            case "PLAYER_LEFT":
+                listener.playerLeft(parts.length > 1 ? parts[1] : null);
+                break;
+            case "STATE":
+                roomState.load(parts);
+                listener.roomChanged(roomState, RoomState.ROSTER | RoomState.SCORES | RoomState.SETTINGS);
+                break;
+            case "DELTA":
+                int changed = roomState.apply(parts);
+                if (changed == RoomState.GAP) {
+                    resync();
+                } else if (changed != RoomState.STALE) {
+                    listener.roomChanged(roomState, changed);
+                }
+                break;
+            case "PLAYER_LIST":
+                loadPlayerList(parts);
+                listener.roomChanged(roomState, RoomState.ROSTER);
+                break;
+            case "SCORES":
+                for (int i = 1; i < parts.length; i++) {
+                    String[] score = parts[i].split(",");
+                    RoomState.Member member = roomState.members.get(score[0]);
+                    if (member != null) member.score = Integer.parseInt(score[1]);
+                }
+                listener.roomChanged(roomState, RoomState.SCORES);
+                break;
+            case "GAME_START":
+                listener.gameStarted(Integer.parseInt(parts[1]));
+                break;
+            case "ROUND_START":
+                listener.roundStarted(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                break;
+            case "DRAWER":
+                listener.drawer(parts[1], parts[2]);
+                break;
+            case "CHOOSE_WORD":
+                listener.chooseWord(Arrays.copyOfRange(parts, 1, parts.length));
+                break;
+            case "WORD_SELECTED":
+                listener.wordSelected(parts[1], Integer.parseInt(parts[2]));
+                break;
+            case "TIMER":
+                listener.timer(Integer.parseInt(parts[1]));
+                break;
+            case "HINT":
+                listener.hint(parts[1]);
+                break;
+            case "DRAW":
+            case "DRAW_BATCH":
+                segments.clear();
+                if (segments.parseText(parts[1])) listener.segments(segments);
+                break;
+            case "STROKE":
+                listener.stroke(Base64.getDecoder().decode(parts[1]));
+                break;
+            case "CLEAR":
+                listener.clear();
+                break;
+            case "SNAPSHOT":
+                listener.snapshot(Base64.getDecoder().decode(parts[1]));
+                break;
+            case "CHAT":
+                listener.chat(parts[1], parts.length > 2 ? parts[2] : "");
+                break;
+            case "CLOSE_GUESS":
+                listener.closeGuess(parts[1]);
+                break;
+            case "CORRECT_GUESS":
+                listener.correctGuess(parts[1], parts[2], Integer.parseInt(parts[3]));
+                break;
+            case "ROUND_END":
+                listener.roundEnded(parts[1]);
+                break;
+            case "GAME_END":
+                listener.gameEnded(parts[1], Integer.parseInt(parts[2]));
+                break;
+            case "ERROR":
+                listener.error(parts.length > 1 ? parts[1] : "");
+                break;
+            default:
+                listener.other(String.join("|", parts));
+                break;
+        }
+    }
+
+    // Servers without room-state send the whole roster each time; it is
+    // folded into the same RoomState so listeners see one model
+    private void loadPlayerList(String[] parts) {
+        Map<String, RoomState.Member> previous = new HashMap<>(roomState.members);
+        roomState.members.clear();
+        for (int i = 1; i < parts.length; i++) {
+            String[] fields = parts[i].split(",");
+            if (fields.length >= 4) {
+                RoomState.Member known = previous.get(fields[0]);
+                String score = known != null ? String.valueOf(known.score) : "0";
+                roomState.members.put(fields[0], new RoomState.Member(
+                    new String[] {fields[0], fields[1], fields[2], fields[3], score}));
+            }
+        }
+    }
+
+    void setAvatar(String color, String accessory) {
+        send("SET_AVATAR|" + color + "|" + accessory);
+    }
+
+    void createRoom(boolean isPrivate, int maxPlayers, int rounds, int drawTime) {
+        send("CREATE_ROOM|" + isPrivate + "," + maxPlayers + "," + rounds + "," + drawTime);
+    }
+
+    void joinRoom(String code) {
+        send("JOIN_ROOM|" + code);
+    }
+
+    // Null for every room, or e.g. "language=EN,open,page=0"
+    void listRooms(String query) {
+        send(query == null ? "LIST_ROOMS" : "LIST_ROOMS|" + query);
+    }
+
+    void subscribeLobby() {
+        send("LOBBY_SUBSCRIBE");
+    }
+
+    void unsubscribeLobby() {
+        send("LOBBY_UNSUBSCRIBE");
+    }
+
+    void configure(int rounds, int drawTime, int maxPlayers, String customWords, String language) {
+        send("CONFIGURE|" + rounds + "," + drawTime + "," + maxPlayers + "," + customWords + "," + language);
+    }
+
+    void startGame() {
+        send("START_GAME");
+    }
+
+    void selectWord(int index) {
+        send("SELECT_WORD|" + index);
+    }
+
+    void draw(int x1, int y1, int x2, int y2, int rgb, int size) {
+        send("DRAW|" + segment(x1, y1, x2, y2, rgb, size));
+    }
+
+    // Segments from segment(), joined with ';'
+    void drawBatch(String segments) {
+        send("DRAW_BATCH|" + segments);
+    }
+
+    static String segment(int x1, int y1, int x2, int y2, int rgb, int size) {
+        return x1 + "," + y1 + "," + x2 + "," + y2 + "," + (rgb >> 16 & 0xFF) + "," + (rgb >> 8 & 0xFF) + ","
+            + (rgb & 0xFF) + "," + size;
+    }
+
+    // A binary stroke chunk from StrokeCodec.Encoder, base64
+    void stroke(String encoded) {
+        send("STROKE|" + encoded);
+    }
+
+    void clearCanvas() {
+        send("CLEAR");
+    }
+
+    void guess(String text) {
+        send("GUESS|" + text);
+    }
+
+    void chat(String text) {
+        send("CHAT|" + text);
+    }
+
+    void resync() {
+        send("RESYNC");
+    }
+
+    void requestSnapshot() {
+        send("SNAPSHOT");
+    }
+
+    void requestLeaderboard() {
+        send("LEADERBOARD");
+    }
+
+    void requestStats(String name) {
+        send("STATS|" + name);
+    }
+
+    // A failed write shows up as the reader's disconnect
+    synchronized void send(String message) {
+        try {
+            out.write(Frame.command(message, framed));
+            out.flush();
+        } catch (IOException e) {
+            closeQuietly();
+        }
+    }
+
+    long bytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    synchronized void close() {
+        closeQuietly();
+    }
+
+    private synchronized void closeQuietly() {
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.function.Predicate;
+
+// The last few sequenced messages of a room, so a resuming player can be
+// sent exactly what it missed. Entries keep the shared packet plus who it
+// was addressed to. Room loop only.
+final class ReplayRing {
+    private final long[] sequences;
+    private final Packet[] packets;
+    // A message for one player only, or for everyone except one
+    private final Session[] only;
+    private final Session[] except;
+    // Messages only some kinds of client get, e.g. room-state deltas
+    private final Predicate<ScribbleServer.ClientHandler>[] audience;
+    private int next;
+    private int size;
+
+    ReplayRing(int capacity) {
+        sequences = new long[capacity];
+        packets = new Packet[capacity];
+        only = new Session[capacity];
+        except = new Session[capacity];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Predicate<ScribbleServer.ClientHandler>[] audience = new Predicate[capacity];
+        this.audience = audience;
+    }
+
+    void add(long sequence, Packet packet, Session onlyTo, Session exceptTo,
+             Predicate<ScribbleServer.ClientHandler> audienceOf) {
+        sequences[next] = sequence;
+        packets[next] = packet;
+        only[next] = onlyTo;
+        except[next] = exceptTo;
+        audience[next] = audienceOf;
+        next = (next + 1) % packets.length;
+        if (size < packets.length) size++;
+    }
+
+    // Delivers everything after lastSeq meant for the session; returns false
+    // when part of that range has already been overwritten
+    boolean replay(long lastSeq, Session session, ScribbleServer.ClientHandler to) {
+        int first = (next - size + packets.length) % packets.length;
+        boolean complete = size == 0 || sequences[first] <= lastSeq + 1;
+        for (int n = 0; n < size; n++) {
+            int i = (first + n) % packets.length;
+            if (sequences[i] <= lastSeq) continue;
+            if ((only[i] == null || only[i] == session) && except[i] != session
+                    && (audience[i] == null || audience[i].test(to))) {
+                to.deliver(packets[i]);
+            }
+        }
+        return complete;
+    }
+}
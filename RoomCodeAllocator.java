@@ -0,0 +1,171 @@
+import java.security.SecureRandom;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Predicate;
+
+// Hands out room codes that are guaranteed free until they are released.
+// Codes come from a series of spaces, shortest first: four digits, then
+// five characters of Crockford base32 (no I, L, O or U). Each space is a
+// bitset of codes in use; a space is drawn from only while it is less than
+// half full, so a random probe finds a free code in two tries on average,
+// and longer codes appear only under load. One shared generator, behind
+// the same short lock as the bitsets.
+final class RoomCodeAllocator {
+    private static final String BASE32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ";
+    private static final double MAX_LOAD = 0.5;
+    private static final int PROBES = 16;
+
+    private final Space[] spaces = {
+        new Space(4, 10, 10_000),
+        new Space(5, 32, 32 * 32 * 32 * 32 * 32)
+    };
+    // In cluster mode only codes this node owns may be handed out, which
+    // the ring makes about an equal share of each space
+    private final Predicate<String> eligible;
+    private final int nodes;
+    private final Random random = new SecureRandom();
+
+    RoomCodeAllocator(Predicate<String> eligible, int nodes) {
+        this.eligible = eligible;
+        this.nodes = Math.max(1, nodes);
+    }
+
+    // Null once every space is full
+    synchronized String allocate() {
+        for (Space space : spaces) {
+            if (space.used < space.capacity() * MAX_LOAD) {
+                String code = space.allocate();
+                if (code != null) return code;
+            }
+        }
+        // Past the load limit everywhere; take whatever is left
+        for (Space space : spaces) {
+            String code = space.allocate();
+            if (code != null) return code;
+        }
+        return null;
+    }
+
+    synchronized void release(String code) {
+        for (Space space : spaces) {
+            int index = space.indexOf(code);
+            if (index >= 0) {
+                space.release(index);
+                return;
+            }
+        }
+    }
+
+    // Users type codes in any case; base32 codes are stored upper case
+    static String normalize(String code) {
+        return code.trim().toUpperCase(Locale.ROOT);
+    }
+
+    // e.g. "4-digit 120/10000 (1.2%), 5-char 0/33554432 (0.0%)", counting
+    // only this node's share in cluster mode
+    synchronized String occupancy() {
+        StringBuilder out = new StringBuilder();
+        for (Space space : spaces) {
+            if (out.length() > 0) out.append(", ");
+            out.append(space.length).append(space.radix == 10 ? "-digit " : "-char ")
+                .append(space.used).append('/').append(space.capacity())
+                .append(String.format(" (%.1f%%)", 100.0 * space.used / space.capacity()));
+        }
+        return out.toString();
+    }
+
+    synchronized int allocated() {
+        int total = 0;
+        for (Space space : spaces) total += space.used;
+        return total;
+    }
+
+    private final class Space {
+        final int length;
+        final int radix;
+        final int size;
+        // Allocated the first time the space is needed
+        BitSet inUse;
+        int used;
+        // Codes another node owns; never handed out here
+        BitSet foreign;
+
+        Space(int length, int radix, int size) {
+            this.length = length;
+            this.radix = radix;
+            this.size = size;
+        }
+
+        int capacity() {
+            return size / nodes;
+        }
+
+        String allocate() {
+            if (inUse == null) {
+                inUse = new BitSet();
+                foreign = new BitSet();
+            }
+            for (int probe = 0; probe < PROBES; probe++) {
+                String code = take(random.nextInt(size));
+                if (code != null) return code;
+            }
+            // Crowded: walk the free codes from a random start
+            int start = random.nextInt(size);
+            for (int index = nextFree(start); index >= 0; index = nextFree(index + 1)) {
+                String code = take(index);
+                if (code != null) return code;
+            }
+            for (int index = nextFree(0); index >= 0 && index < start; index = nextFree(index + 1)) {
+                String code = take(index);
+                if (code != null) return code;
+            }
+            return null;
+        }
+
+        private int nextFree(int from) {
+            int index = inUse.nextClearBit(from);
+            while (index < size && foreign.get(index)) index = inUse.nextClearBit(index + 1);
+            return index < size ? index : -1;
+        }
+
+        private String take(int index) {
+            if (inUse.get(index) || foreign.get(index)) return null;
+            String code = encode(index);
+            if (!eligible.test(code)) {
+                foreign.set(index);
+                return null;
+            }
+            inUse.set(index);
+            used++;
+            return code;
+        }
+
+        void release(int index) {
+            if (inUse != null && inUse.get(index)) {
+                inUse.clear(index);
+                used--;
+            }
+        }
+
+        String encode(int index) {
+            char[] code = new char[length];
+            for (int i = length - 1; i >= 0; i--) {
+                code[i] = BASE32.charAt(index % radix);
+                index /= radix;
+            }
+            return new String(code);
+        }
+
+        int indexOf(String code) {
+            if (code.length() != length) return -1;
+            int index = 0;
+            for (int i = 0; i < length; i++) {
+                int digit = BASE32.indexOf(code.charAt(i));
+                if (digit < 0 || digit >= radix) return -1;
+                index = index * radix + digit;
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Index of the public rooms, kept current by the rooms themselves: each one
+// republishes its entry from its own loop whenever its players, settings or
+// state change. Listings are cached per query until the next change. Lobby
+// clients that subscribe get the whole directory once and then batched
+// diffs, at most one line per BATCH_MILLIS, carrying only the latest entry
+// of each room that changed.
+//
+//   LIST_ROOMS                          ROOM_LIST|<entry>|...   (every room)
+//   LIST_ROOMS|language=EN,open,waiting,page=0,size=20
+//                                       ROOM_PAGE|page|pages|<entry>|...
+//   LOBBY_SUBSCRIBE                     ROOM_DIFF|+<entry>|-<code>|...
+//
+// An entry is code,players/max,language,playing|waiting.
+final class RoomDirectory {
+    static final int DEFAULT_PAGE_SIZE = 20;
+    static final int MAX_PAGE_SIZE = 100;
+    private static final long BATCH_MILLIS = 250;
+    private static final int MAX_CACHED_PAGES = 1024;
+    // Keeps diff lines well under the line limit of clients and the router
+    private static final int ENTRIES_PER_LINE = 200;
+
+    static final class Entry {
+        final String code;
+        final int players;
+        final int maxPlayers;
+        final String language;
+        final boolean playing;
+        final String encoded;
+
+        Entry(String code, int players, int maxPlayers, String language, boolean playing) {
+            this.code = code;
+            this.players = players;
+            this.maxPlayers = maxPlayers;
+            this.language = language;
+            this.playing = playing;
+            this.encoded = code + "," + players + "/" + maxPlayers + "," + language + "," + (playing ? "playing" : "waiting");
+        }
+
+        // Null for anything that is not an entry
+        static Entry parse(String encoded) {
+            String[] fields = encoded.split(",");
+            if (fields.length < 4) return null;
+            int slash = fields[1].indexOf('/');
+            if (slash < 0) return null;
+            try {
+                return new Entry(fields[0], Integer.parseInt(fields[1].substring(0, slash)),
+                    Integer.parseInt(fields[1].substring(slash + 1)), fields[2], fields[3].equals("playing"));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    // Sorted by code so pages stay stable between requests
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    private final AtomicLong version = new AtomicLong();
+    // Each kept with the version it was built at, so one that lost a race
+    // with changed() is never served
+    private final Map<String, Cached<Packet>> pages = new ConcurrentHashMap<>();
+    private volatile Cached<List<Packet>> snapshot;
+
+    private final Set<ScribbleServer.ClientHandler> subscribers = ConcurrentHashMap.newKeySet();
+    // Latest diff per room since the last batch: "+entry" or "-code"
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ExecutorService publisher = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "room-directory");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Called on the room's loop after any change that shows in the lobby
+    void update(ScribbleServer.GameRoom room) {
+        if (room.isPrivate || room.closed) {
+            remove(room.roomCode);
+            return;
+        }
+        Entry entry = new Entry(room.roomCode, room.players.size(), room.maxPlayers, room.language, room.gameActive);
+        Entry previous = entries.put(entry.code, entry);
+        if (previous != null && previous.encoded.equals(entry.encoded)) return;
+        changed(entry.code, "+" + entry.encoded);
+    }
+
+    void remove(String code) {
+        if (entries.remove(code) != null) changed(code, "-" + code);
+    }
+
+    // The entry is in place before the version moves, so a listing built
+    // against the new version always sees it
+    private void changed(String code, String diff) {
+        version.incrementAndGet();
+        pages.clear();
+        if (subscribers.isEmpty()) return;
+        pending.put(code, diff);
+        if (flushScheduled.compareAndSet(false, true)) {
+            ScribbleServer.timers.schedule(BATCH_MILLIS, () -> publisher.execute(this::flush));
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        List<String> diffs = new ArrayList<>();
+        for (String code : pending.keySet()) {
+            String diff = pending.remove(code);
+            if (diff != null) diffs.add(diff);
+        }
+        if (diffs.isEmpty()) return;
+        for (Packet packet : diffLines(diffs)) {
+            for (ScribbleServer.ClientHandler subscriber : subscribers) {
+                subscriber.deliver(packet);
+            }
+        }
+    }
+
+    private static List<Packet> diffLines(List<String> diffs) {
+        List<Packet> lines = new ArrayList<>();
+        for (int from = 0; from < diffs.size(); from += ENTRIES_PER_LINE) {
+            StringBuilder line = new StringBuilder("ROOM_DIFF");
+            for (String diff : diffs.subList(from, Math.min(diffs.size(), from + ENTRIES_PER_LINE))) {
+                line.append('|').append(diff);
+            }
+            lines.add(Packet.of(line.toString()));
+        }
+        return lines;
+    }
+
+    // The subscriber starts from the whole directory as additions
+    void subscribe(ScribbleServer.ClientHandler client) {
+        subscribers.add(client);
+        for (Packet packet : snapshot()) {
+            client.deliver(packet);
+        }
+    }
+
+    void unsubscribe(ScribbleServer.ClientHandler client) {
+        subscribers.remove(client);
+    }
+
+    private List<Packet> snapshot() {
+        long current = version.get();
+        Cached<List<Packet>> cached = snapshot;
+        if (cached != null && cached.version == current) return cached.value;
+        List<String> diffs = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            diffs.add("+" + entry.encoded);
+        }
+        List<Packet> lines = diffs.isEmpty()
+            ? Collections.singletonList(Packet.of("ROOM_DIFF")) : diffLines(diffs);
+        snapshot = new Cached<>(current, lines);
+        return lines;
+    }
+
+    Packet list(String query) {
+        String key = query == null ? "" : query;
+        long current = version.get();
+        Cached<Packet> cached = pages.get(key);
+        if (cached != null && cached.version == current) return cached.value;
+        Packet page = Packet.of(query == null ? listAll(entries.values()) : listPage(entries.values(), query));
+        // Queries are client text, so only so many distinct ones are kept
+        if (cached != null || pages.size() < MAX_CACHED_PAGES) pages.put(key, new Cached<>(current, page));
+        return page;
+    }
+
+    private static final class Cached<T> {
+        final long version;
+        final T value;
+
+        Cached(long version, T value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    // Also used by the router over the entries gathered from every node
+    static String listAll(Iterable<Entry> entries) {
+        StringBuilder list = new StringBuilder("ROOM_LIST");
+        for (Entry entry : entries) {
+            list.append('|').append(entry.encoded);
+        }
+        return list.toString();
+    }
+
+    static String listPage(Iterable<Entry> entries, String query) {
+        String language = null;
+        boolean open = false, waiting = false;
+        int page = 0, size = DEFAULT_PAGE_SIZE;
+        for (String term : query.split(",")) {
+            term = term.trim();
+            try {
+                if (term.startsWith("language=")) language = term.substring("language=".length());
+                else if (term.equals("open")) open = true;
+                else if (term.equals("waiting")) waiting = true;
+                else if (term.startsWith("page=")) page = Math.max(0, Integer.parseInt(term.substring("page=".length())));
+                else if (term.startsWith("size=")) size = Integer.parseInt(term.substring("size=".length()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        size = Math.max(1, Math.min(MAX_PAGE_SIZE, size));
+        long skip = (long) page * size;
+        int matched = 0;
+        StringBuilder rooms = new StringBuilder();
+        for (Entry entry : entries) {
+            if (language != null && !language.equalsIgnoreCase(entry.language)) continue;
+            if (open && entry.players >= entry.maxPlayers) continue;
+            if (waiting && entry.playing) continue;
+            if (matched >= skip && matched < skip + size) rooms.append('|').append(entry.encoded);
+            matched++;
+        }
+        int pages = Math.max(1, (matched + size - 1) / size);
+        return "ROOM_PAGE|" + page + "|" + pages + rooms;
+    }
+}
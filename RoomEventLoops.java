@@ -0,0 +1,82 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Rooms run as actors: every command and timer event for a room is posted
+// to the one loop its code hashes to, and that loop's thread is the only
+// writer of the room's state. Mailboxes are lock-free queues; an idle loop
+// parks until a producer unparks it.
+final class RoomEventLoops {
+    private final Loop[] loops;
+
+    RoomEventLoops(String name, int threads) {
+        this.loops = new Loop[Math.max(1, threads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new Loop(name + "-" + i);
+        }
+    }
+
+    Executor forRoom(String roomCode) {
+        int hash = roomCode.hashCode();
+        return loops[Math.floorMod(hash ^ (hash >>> 16), loops.length)];
+    }
+
+    int size() {
+        return loops.length;
+    }
+
+    // Tasks posted but not yet finished, over every loop
+    long backlog() {
+        long total = 0;
+        for (Loop loop : loops) total += loop.backlog.sum();
+        return total;
+    }
+
+    static final class Loop extends Thread implements Executor {
+        private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private volatile boolean parked;
+        final LongAdder backlog = new LongAdder();
+
+        Loop(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            backlog.increment();
+            mailbox.add(task);
+            if (started.compareAndSet(false, true)) {
+                start();
+            } else if (parked) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task = mailbox.poll();
+                if (task == null) {
+                    // Publish the intent to park before the last look, so a
+                    // producer either sees parked or we see its task
+                    parked = true;
+                    if (mailbox.isEmpty()) LockSupport.park(this);
+                    parked = false;
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    backlog.decrement();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A room's roster, scores and settings as one versioned document. Clients
+// that negotiate the capability get the whole of it once, as
+//
+//   STATE|version|hostId|rounds,drawTime,maxPlayers,language|id,name,color,accessory,score|...
+//
+// and after that one DELTA per change, numbered one past the last:
+//
+//   DELTA|version|JOIN|id,name,color,accessory,score
+//   DELTA|version|LEAVE|id
+//   DELTA|version|SCORE|id,score
+//   DELTA|version|RESET                      (every score back to 0)
+//   DELTA|version|HOST|id
+//   DELTA|version|CONFIG|rounds,drawTime,maxPlayers,language
+//
+// A client that sees a version out of order asks for the document again
+// with RESYNC. The server only encodes; this class is the client's copy.
+final class RoomState {
+    static final String CAPABILITY = "room-state";
+
+    // What a delta touched, so the client redraws only that
+    static final int STALE = 0;
+    static final int ROSTER = 1;
+    static final int SCORES = 2;
+    static final int SETTINGS = 4;
+    static final int GAP = -1;
+
+    static final class Member {
+        final String id;
+        final String name;
+        final String color;
+        final String accessory;
+        int score;
+
+        Member(String[] fields) {
+            this.id = fields[0];
+            this.name = fields[1];
+            this.color = fields[2];
+            this.accessory = fields[3];
+            this.score = Integer.parseInt(fields[4]);
+        }
+    }
+
+    long version = -1;
+    String hostId;
+    String settings;
+    final Map<String, Member> members = new LinkedHashMap<>();
+    // Deltas are ignored between asking for a resync and getting the state
+    private boolean awaitingState = true;
+
+    static String member(String id, String name, String color, String accessory, int score) {
+        return id + "," + name + "," + color + "," + accessory + "," + score;
+    }
+
+    void load(String[] parts) {
+        version = Long.parseLong(parts[1]);
+        hostId = parts[2];
+        settings = parts[3];
+        members.clear();
+        for (int i = 4; i < parts.length; i++) {
+            String[] fields = parts[i].split(",");
+            if (fields.length >= 5) members.put(fields[0], new Member(fields));
+        }
+        awaitingState = false;
+    }
+
+    int apply(String[] parts) {
+        if (awaitingState) return STALE;
+        long delta = Long.parseLong(parts[1]);
+        if (delta <= version) return STALE;
+        if (delta != version + 1) {
+            awaitingState = true;
+            return GAP;
+        }
+        version = delta;
+        String[] fields = parts.length > 3 ? parts[3].split(",") : new String[0];
+        switch (parts[2]) {
+            case "JOIN":
+                members.put(fields[0], new Member(fields));
+                return ROSTER | SCORES;
+            case "LEAVE":
+                members.remove(fields[0]);
+                return ROSTER | SCORES;
+            case "SCORE":
+                Member member = members.get(fields[0]);
+                if (member != null) member.score = Integer.parseInt(fields[1]);
+                return SCORES;
+            case "RESET":
+                for (Member m : members.values()) m.score = 0;
+                return SCORES;
+            case "HOST":
+                hostId = fields[0];
+                return ROSTER;
+            case "CONFIG":
+                settings = parts[3];
+                return SETTINGS;
+            default:
+                return STALE;
+        }
+    }
+
+    // Leaving a room; the next room starts from its own STATE
+    void clear() {
+        version = -1;
+        members.clear();
+        awaitingState = true;
+    }
+}
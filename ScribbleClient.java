@@ -4,17 +4,35 @@ import java.awt.event.*;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.swing.border.*;
 
 public class ScribbleClient extends JFrame {
     private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private static final int FRAME_MS = Integer.getInteger("scribble.frameMs", 16);
+    // Identity-compared wake-up for the sender when a new frame starts
+    private static final String FRAME_MARK = new String("");
+    private OutboundSender sender;
+    private LineCompression.LineReader in;
+    // Protocol v2: binary frames both ways, agreed before anything else is sent
+    private volatile boolean framed;
     private String playerId;
     private String playerName;
-    private String currentRoom;
+    private volatile String currentRoom;
     private boolean isDrawing = false;
+    private boolean binaryStrokes = false;
+    private volatile boolean drawBatches = false;
+    // Lets a dropped connection take its seat back; see tryResume
+    private volatile String sessionToken;
+    private volatile long lastSeq;
     private Map<String, String> idToName = new HashMap<>();
+    // Roster and scores kept from STATE and DELTA; servers without them
+    // send whole PLAYER_LIST and SCORES instead
+    private final RoomState roomState = new RoomState();
+    // Public rooms pushed by the server while the lobby is showing, by code
+    private final Map<String, String> lobbyRooms = new TreeMap<>();
+    private boolean lobbyLive = false;
+    private JLabel lobbyStatus;
     
     // UI Components
     private JPanel mainPanel;
@@ -125,14 +143,21 @@ public class ScribbleClient extends JFrame {
     private void connectToServer() {
         try {
             socket = new Socket("localhost", 5555);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+            in = new LineCompression.LineReader(socket.getInputStream());
+            framed = Frame.handshake(socket, output, in);
+            sender = new OutboundSender(output);
             
-            out.println("SET_NAME|" + playerName);
-            out.println("SET_AVATAR|" + String.format("#%02x%02x%02x", 
+            send("SET_NAME|" + playerName);
+            send("SET_AVATAR|" + String.format("#%02x%02x%02x", 
                 avatarColor.getRed(), avatarColor.getGreen(), avatarColor.getBlue()) + 
                 "|" + avatarAccessory);
+            // Servers that predate CAPS ignore it and we stay on DRAW text
+            send(capabilitiesRequest());
             
+            Thread senderThread = new Thread(sender, "scribble-sender");
+            senderThread.setDaemon(true);
+            senderThread.start();
             new Thread(this::receiveMessages).start();
             showLobbyScreen();
         } catch (IOException e) {
@@ -141,6 +166,11 @@ public class ScribbleClient extends JFrame {
         }
     }
 
+    private static String capabilitiesRequest() {
+        return "CAPS|" + StrokeCodec.CAPABILITY + "," + StrokeCodec.BATCH_CAPABILITY
+            + "," + CanvasRaster.CAPABILITY + "," + Session.CAPABILITY + "," + RoomState.CAPABILITY + "," + LineCompression.CAPABILITY;
+    }
+
     private void showLobbyScreen() {
         JPanel lobbyPanel = new JPanel(new BorderLayout(10, 10));
         lobbyPanel.setBorder(new EmptyBorder(20, 20, 20, 20));
@@ -150,7 +180,7 @@ public class ScribbleClient extends JFrame {
         titleLabel.setHorizontalAlignment(SwingConstants.CENTER);
         lobbyPanel.add(titleLabel, BorderLayout.NORTH);
         
-        JPanel centerPanel = new JPanel(new GridLayout(2, 2, 20, 20));
+        JPanel centerPanel = new JPanel(new GridLayout(3, 2, 20, 20));
         
         JButton createButton = new JButton("Create Private Room");
         createButton.setFont(new Font("Arial", Font.BOLD, 18));
@@ -169,10 +199,32 @@ public class ScribbleClient extends JFrame {
         
         JButton listButton = new JButton("Browse Public Rooms");
         listButton.setFont(new Font("Arial", Font.BOLD, 18));
-        listButton.addActionListener(e -> out.println("LIST_ROOMS"));
+        // Servers without lobby updates never send ROOM_DIFF; ask them instead
+        listButton.addActionListener(e -> {
+            if (lobbyLive) {
+                showRoomList(lobbyListing());
+            } else {
+                send("LIST_ROOMS");
+            }
+        });
         centerPanel.add(listButton);
+
+        JButton leaderboardButton = new JButton("Leaderboard");
+        leaderboardButton.setFont(new Font("Arial", Font.BOLD, 18));
+        leaderboardButton.addActionListener(e -> send("LEADERBOARD"));
+        centerPanel.add(leaderboardButton);
+
+        JButton statsButton = new JButton("My Stats");
+        statsButton.setFont(new Font("Arial", Font.BOLD, 18));
+        statsButton.addActionListener(e -> send("STATS|" + playerName));
+        centerPanel.add(statsButton);
         
         lobbyPanel.add(centerPanel, BorderLayout.CENTER);
+
+        lobbyStatus = new JLabel(" ");
+        lobbyStatus.setHorizontalAlignment(SwingConstants.CENTER);
+        lobbyPanel.add(lobbyStatus, BorderLayout.SOUTH);
+        subscribeLobby();
         
         mainPanel.add(lobbyPanel, "LOBBY");
         cardLayout.show(mainPanel, "LOBBY");
@@ -180,13 +232,13 @@ public class ScribbleClient extends JFrame {
 
     private void createRoom(boolean isPrivate) {
         String config = isPrivate + ",8,3,80";
-        out.println("CREATE_ROOM|" + config);
+        send("CREATE_ROOM|" + config);
     }
 
     private void joinRoomDialog() {
         String code = JOptionPane.showInputDialog(this, "Enter Room Code:");
         if (code != null && !code.trim().isEmpty()) {
-            out.println("JOIN_ROOM|" + code.trim());
+            send("JOIN_ROOM|" + code.trim());
         }
     }
 
@@ -210,7 +262,7 @@ public class ScribbleClient extends JFrame {
         // Center panel with canvas and tools
         JPanel centerPanel = new JPanel(new BorderLayout());
         
-        canvas = new DrawingCanvas();
+        canvas = new DrawingCanvas(this);
         canvas.setPreferredSize(new Dimension(800, 600));
         canvas.setBorder(BorderFactory.createLineBorder(Color.BLACK, 2));
         centerPanel.add(canvas, BorderLayout.CENTER);
@@ -255,7 +307,10 @@ public class ScribbleClient extends JFrame {
         toolPanel.add(new JSeparator(SwingConstants.VERTICAL));
         
         JButton clearBtn = new JButton("Clear Canvas");
-        clearBtn.addActionListener(e -> canvas.clear());
+        clearBtn.addActionListener(e -> {
+            canvas.clear();
+            sender.clearCanvas();
+        });
         toolPanel.add(clearBtn);
         
         JButton fillBtn = new JButton("Fill");
@@ -289,7 +344,7 @@ public class ScribbleClient extends JFrame {
         guessInput.addActionListener(e -> {
             String guess = guessInput.getText().trim();
             if (!guess.isEmpty() && !isDrawing) {
-                out.println("GUESS|" + guess);
+                send("GUESS|" + guess);
                 guessInput.setText("");
             }
         });
@@ -311,7 +366,7 @@ public class ScribbleClient extends JFrame {
         chatInput.addActionListener(e -> {
             String message = chatInput.getText().trim();
             if (!message.isEmpty()) {
-                out.println("CHAT|" + message);
+                send("CHAT|" + message);
                 chatInput.setText("");
             }
         });
@@ -331,7 +386,7 @@ public class ScribbleClient extends JFrame {
         // Bottom panel with game controls
         JPanel bottomPanel = new JPanel(new FlowLayout());
         JButton startBtn = new JButton("Start Game");
-        startBtn.addActionListener(e -> out.println("START_GAME"));
+        startBtn.addActionListener(e -> send("START_GAME"));
         bottomPanel.add(startBtn);
         
         JButton configBtn = new JButton("Configure");
@@ -357,7 +412,7 @@ public class ScribbleClient extends JFrame {
             wordButtons[i] = new JButton();
             wordButtons[i].setFont(new Font("Arial", Font.BOLD, 18));
             wordButtons[i].addActionListener(e -> {
-                out.println("SELECT_WORD|" + index);
+                send("SELECT_WORD|" + index);
                 wordChoicePanel.setVisible(false);
             });
             wordChoicePanel.add(wordButtons[i]);
@@ -390,6 +445,10 @@ public class ScribbleClient extends JFrame {
         configPanel.add(new JLabel("Custom Words (comma-separated):"));
         JTextField customWordsField = new JTextField();
         configPanel.add(customWordsField);
+
+        configPanel.add(new JLabel("Word Language:"));
+        JTextField languageField = new JTextField("EN");
+        configPanel.add(languageField);
         
         int result = JOptionPane.showConfirmDialog(this, configPanel, 
             "Room Configuration", JOptionPane.OK_CANCEL_OPTION);
@@ -399,24 +458,133 @@ public class ScribbleClient extends JFrame {
             String config = roundsSpinner.getValue() + "," + 
                           timeSpinner.getValue() + "," + 
                           playersSpinner.getValue() + "," + 
-                          customWords;
-            out.println("CONFIGURE|" + config);
+                          customWords + "," +
+                          languageField.getText().trim();
+            send("CONFIGURE|" + config);
         }
     }
 
     private void receiveMessages() {
-        try {
-            String message;
-            while ((message = in.readLine()) != null) {
-                processServerMessage(message);
+        Frame.Reader frame = new Frame.Reader();
+        do {
+            try {
+                while (true) {
+                    if (framed) {
+                        if (!in.readFrame(frame, Frame.MAX_SERVER_FRAME)) break;
+                        processServerFrame(frame);
+                    } else {
+                        String message = in.readLine();
+                        if (message == null) break;
+                        // Switched here, on the reader, before anything else is read
+                        if (LineCompression.accepts(message)) in.startInflating();
+                        processServerMessage(message);
+                    }
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                // Reconnect below
+            }
+        } while (tryResume());
+        System.out.println("Disconnected from server");
+    }
+
+    // Reconnects for as long as the server holds our seat and asks for
+    // everything after the last numbered message we saw. Commands typed in
+    // the meantime stay queued in the sender and go out afterwards.
+    private boolean tryResume() {
+        String token = sessionToken;
+        if (token == null || currentRoom == null) return false;
+        SwingUtilities.invokeLater(() -> chatArea.append("Connection lost, reconnecting...\n"));
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1000);
+                Socket fresh = new Socket("localhost", 5555);
+                OutputStream output = new BufferedOutputStream(fresh.getOutputStream());
+                LineCompression.LineReader reader = new LineCompression.LineReader(fresh.getInputStream());
+                boolean useFrames = Frame.handshake(fresh, output, reader);
+                output.write(Frame.command(capabilitiesRequest(), useFrames));
+                output.write(Frame.command("RESUME|" + token + "|" + lastSeq + "|" + currentRoom, useFrames));
+                output.flush();
+                closeQuietly(socket);
+                socket = fresh;
+                in.close();
+                in = reader;
+                framed = useFrames;
+                sender.resumeWith(output);
+                return true;
+            } catch (IOException e) {
+                // Server not reachable yet
+            } catch (InterruptedException e) {
+                return false;
             }
-        } catch (IOException e) {
-            System.out.println("Disconnected from server");
+        }
+        return false;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
         }
     }
 
     private void processServerMessage(String message) {
-        String[] parts = message.split("\\|");
+        // Numbered room messages: @seq|message
+        if (message.startsWith("@")) {
+            int bar = message.indexOf('|');
+            if (bar > 0) {
+                try {
+                    lastSeq = Math.max(lastSeq, Long.parseLong(message.substring(1, bar)));
+                } catch (NumberFormatException ignored) {
+                }
+                message = message.substring(bar + 1);
+            }
+        }
+        handle(message.split("\\|"));
+    }
+
+    // The frequent messages, decoded from their fields on the reader thread;
+    // the rest go through the text handlers
+    private static final Frame.Table<ScribbleClient> FRAMES = new Frame.Table<ScribbleClient>()
+        .on(Frame.DRAW, ScribbleClient::drawSegments)
+        .on(Frame.DRAW_BATCH, ScribbleClient::drawSegments)
+        .on(Frame.STROKE, (client, frame) -> {
+            byte[] stroke = frame.bytes();
+            SwingUtilities.invokeLater(() -> client.canvas.drawStrokeFromNetwork(stroke));
+        })
+        .on(Frame.SNAPSHOT, (client, frame) -> {
+            byte[] snapshot = frame.bytes();
+            SwingUtilities.invokeLater(() -> client.canvas.setSnapshot(snapshot));
+        })
+        .on(Frame.TIMER, (client, frame) -> {
+            int seconds = frame.integer();
+            SwingUtilities.invokeLater(() -> client.timerLabel.setText("Time: " + seconds + "s"));
+        })
+        .on(Frame.CHAT, (client, frame) -> {
+            String line = frame.string() + ": " + (frame.hasMore() ? frame.string() : "") + "\n";
+            SwingUtilities.invokeLater(() -> client.chatArea.append(line));
+        });
+
+    private void processServerFrame(Frame.Reader frame) {
+        if (frame.sequence() >= 0) lastSeq = Math.max(lastSeq, frame.sequence());
+        if (FRAMES.dispatch(this, frame)) return;
+        if (frame.opcode() == Frame.LINE) {
+            processServerMessage(frame.string());
+            return;
+        }
+        String[] parts = frame.parts(true);
+        if (LineCompression.accepts(String.join("|", parts))) in.startInflating();
+        handle(parts);
+    }
+
+    // The frame buffer is reused, so the segments are copied out here
+    private void drawSegments(Frame.Reader frame) {
+        StrokeCodec.Segments segments = new StrokeCodec.Segments();
+        frame.segments(segments);
+        SwingUtilities.invokeLater(() -> canvas.drawSegments(segments));
+    }
+
+    private void handle(String[] parts) {
         String command = parts[0];
         
         SwingUtilities.invokeLater(() -> {
@@ -424,8 +592,35 @@ public class ScribbleClient extends JFrame {
                 case "NAME_SET":
                     playerId = parts[1];
                     break;
+                case "SESSION":
+                    sessionToken = parts[1];
+                    break;
+                case "RESUMED":
+                    playerId = parts[2];
+                    chatArea.append("Reconnected.\n");
+                    break;
+                case "RESUME_FAILED":
+                    // The seat is gone; carry on in the lobby as a new player
+                    sessionToken = null;
+                    currentRoom = null;
+                    send("SET_NAME|" + playerName);
+                    send("SET_AVATAR|" + String.format("#%02x%02x%02x",
+                        avatarColor.getRed(), avatarColor.getGreen(), avatarColor.getBlue()) + "|" + avatarAccessory);
+                    JOptionPane.showMessageDialog(this, "Could not rejoin the room");
+                    subscribeLobby();
+                    cardLayout.show(mainPanel, "LOBBY");
+                    break;
+                case "CAPS":
+                    java.util.List<String> accepted = parts.length > 1
+                        ? Arrays.asList(parts[1].split(",")) : Collections.<String>emptyList();
+                    binaryStrokes = accepted.contains(StrokeCodec.CAPABILITY);
+                    drawBatches = accepted.contains(StrokeCodec.BATCH_CAPABILITY);
+                    break;
                 case "ROOM_CREATED":
                 case "ROOM_JOINED":
+                    // The server stops lobby updates once we are in a room
+                    lobbyLive = false;
+                    roomState.clear();
                     currentRoom = parts[1];
                     showGameRoom();
                     cardLayout.show(mainPanel, "GAME");
@@ -434,12 +629,43 @@ public class ScribbleClient extends JFrame {
                 case "ROOM_LIST":
                     showRoomList(parts);
                     break;
+                case "ROOM_DIFF":
+                    applyRoomDiff(parts);
+                    break;
+                case "LEADERBOARD":
+                    showLeaderboard(parts);
+                    break;
+                case "STATS":
+                    String[] stats = parts[1].split(",");
+                    JOptionPane.showMessageDialog(this, stats[0] + "\nGames: " + stats[1] + "\nWins: " + stats[2]
+                        + "\nPoints: " + stats[3] + "\nAverage guess: " + formatSeconds(stats[4]),
+                        "Player Stats", JOptionPane.INFORMATION_MESSAGE);
+                    break;
                 case "PLAYER_JOINED":
                     chatArea.append(parts[1] + " joined the game!\n");
                     break;
                 case "PLAYER_LEFT":
                     chatArea.append("A player left the game.\n");
                     break;
+                case "STATE":
+                    roomState.load(parts);
+                    showRoomState(RoomState.ROSTER | RoomState.SCORES);
+                    break;
+                case "DELTA":
+                    RoomState.Member leaving = parts[2].equals("LEAVE") ? roomState.members.get(parts[3]) : null;
+                    int changed = roomState.apply(parts);
+                    if (changed == RoomState.GAP) {
+                        send("RESYNC");
+                        break;
+                    }
+                    if (changed == RoomState.STALE) break;
+                    if (parts[2].equals("JOIN")) {
+                        chatArea.append(parts[3].split(",")[1] + " joined the game!\n");
+                    } else if (leaving != null) {
+                        chatArea.append(leaving.name + " left the game.\n");
+                    }
+                    showRoomState(changed);
+                    break;
                 case "PLAYER_LIST":
                     idToName.clear();
                     for (int i = 1; i < parts.length; i++) {
@@ -494,9 +720,24 @@ public class ScribbleClient extends JFrame {
                 case "DRAW":
                     canvas.drawFromNetwork(parts[1]);
                     break;
+                case "STROKE":
+                    canvas.drawStrokeFromNetwork(parts[1]);
+                    break;
+                case "DRAW_BATCH":
+                    canvas.drawBatchFromNetwork(parts[1]);
+                    break;
+                case "CLEAR":
+                    canvas.clear();
+                    break;
+                case "SNAPSHOT":
+                    canvas.setSnapshot(parts[1]);
+                    break;
                 case "CHAT":
                     chatArea.append(parts[1] + ": " + parts[2] + "\n");
                     break;
+                case "CLOSE_GUESS":
+                    chatArea.append("'" + parts[1] + "' is close!\n");
+                    break;
                 case "CORRECT_GUESS":
                     chatArea.append("✓ " + parts[2] + " guessed correctly! (+" + parts[3] + " points)\n");
                     break;
@@ -524,6 +765,176 @@ public class ScribbleClient extends JFrame {
         });
     }
 
+    private void send(String message) {
+        sender.send(message);
+    }
+
+    // Writes happen here rather than on the EDT. Chat and commands go out as
+    // soon as they are queued; drawing is coalesced into one message per frame.
+    class OutboundSender implements Runnable {
+        private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        // Replaced after a reconnect; guarded by this
+        private OutputStream writer;
+        // Guarded by this; filled on the EDT and taken once per frame
+        private final StrokeCodec.Encoder strokeEncoder = new StrokeCodec.Encoder();
+        private final StringBuilder segments = new StringBuilder();
+        private long frameStart = -1;
+
+        OutboundSender(OutputStream writer) {
+            this.writer = writer;
+        }
+
+        void send(String message) {
+            messages.add(message);
+        }
+
+        synchronized void strokeBegin(int rgb, int size, int x, int y) {
+            startFrame();
+            strokeEncoder.begin(rgb, size, x, y);
+        }
+
+        synchronized void strokeLineTo(int x, int y) {
+            startFrame();
+            strokeEncoder.lineTo(x, y);
+        }
+
+        synchronized void drawSegment(int x1, int y1, int x2, int y2, Color color, int size) {
+            startFrame();
+            if (segments.length() > 0) segments.append(';');
+            segments.append(x1).append(',').append(y1).append(',')
+                .append(x2).append(',').append(y2).append(',')
+                .append(color.getRed()).append(',').append(color.getGreen()).append(',')
+                .append(color.getBlue()).append(',').append(size);
+        }
+
+        // Strokes still waiting for their frame were drawn on the canvas
+        // being wiped, so they are dropped rather than sent after CLEAR
+        synchronized void clearCanvas() {
+            strokeEncoder.drain();
+            segments.setLength(0);
+            send("CLEAR");
+        }
+
+        private void startFrame() {
+            if (frameStart < 0) {
+                frameStart = System.nanoTime();
+                messages.add(FRAME_MARK);
+            }
+        }
+
+        private synchronized long frameWaitMillis() {
+            if (frameStart < 0) return Long.MAX_VALUE;
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - frameStart);
+            return Math.max(0, FRAME_MS - elapsed);
+        }
+
+        private synchronized String takeFrame() {
+            if (frameStart < 0 || frameWaitMillis() > 0) return null;
+            frameStart = -1;
+            StringBuilder frame = new StringBuilder();
+            if (!strokeEncoder.isEmpty()) {
+                frame.append("STROKE|").append(Base64.getEncoder().encodeToString(strokeEncoder.drain()));
+            }
+            if (segments.length() > 0) {
+                if (frame.length() > 0) frame.append('\n');
+                if (drawBatches) {
+                    frame.append("DRAW_BATCH|").append(segments);
+                } else {
+                    frame.append("DRAW|").append(segments.toString().replace(";", "\nDRAW|"));
+                }
+                segments.setLength(0);
+            }
+            return frame.length() > 0 ? frame.toString() : null;
+        }
+
+        synchronized void resumeWith(OutputStream writer) {
+            this.writer = writer;
+            notifyAll();
+        }
+
+        private synchronized OutputStream currentWriter() {
+            return writer;
+        }
+
+        // Parks the sender until the receiver has reconnected
+        private synchronized void awaitNewWriter(OutputStream failed) throws InterruptedException {
+            while (writer == failed) {
+                wait();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    OutputStream out = currentWriter();
+                    try {
+                        String message = messages.poll(frameWaitMillis(), TimeUnit.MILLISECONDS);
+                        while (message != null) {
+                            if (message != FRAME_MARK) out.write(Frame.command(message, framed));
+                            message = messages.poll();
+                        }
+                        String frame = takeFrame();
+                        if (frame != null) out.write(Frame.command(frame, framed));
+                        out.flush();
+                    } catch (IOException e) {
+                        awaitNewWriter(out);
+                    }
+                }
+            } catch (InterruptedException e) {
+                System.out.println("Sender stopped: " + e.getMessage());
+            }
+        }
+    }
+
+    private void subscribeLobby() {
+        lobbyRooms.clear();
+        lobbyLive = false;
+        send("LOBBY_SUBSCRIBE");
+    }
+
+    private void applyRoomDiff(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String diff = parts[i];
+            if (diff.startsWith("+")) {
+                String entry = diff.substring(1);
+                lobbyRooms.put(entry.split(",")[0], entry);
+            } else if (diff.startsWith("-")) {
+                lobbyRooms.remove(diff.substring(1));
+            }
+        }
+        lobbyLive = true;
+        if (lobbyStatus != null) {
+            lobbyStatus.setText(lobbyRooms.size() == 1 ? "1 public room" : lobbyRooms.size() + " public rooms");
+        }
+    }
+
+    private String[] lobbyListing() {
+        java.util.List<String> listing = new ArrayList<>();
+        listing.add("ROOM_LIST");
+        listing.addAll(lobbyRooms.values());
+        return listing.toArray(new String[0]);
+    }
+
+    private void showLeaderboard(String[] parts) {
+        if (parts.length == 1) {
+            JOptionPane.showMessageDialog(this, "No games played yet");
+            return;
+        }
+        StringBuilder board = new StringBuilder();
+        for (int i = 1; i < parts.length; i++) {
+            String[] entry = parts[i].split(",");
+            board.append(i).append(". ").append(entry[0]).append(" - ").append(entry[3]).append(" pts, ")
+                .append(entry[2]).append(" wins in ").append(entry[1]).append(" games, avg guess ")
+                .append(formatSeconds(entry[4])).append("\n");
+        }
+        JOptionPane.showMessageDialog(this, board.toString(), "Leaderboard", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private static String formatSeconds(String millis) {
+        return String.format("%.1fs", Long.parseLong(millis) / 1000.0);
+    }
+
     private void showRoomList(String[] parts) {
         if (parts.length == 1) {
             JOptionPane.showMessageDialog(this, "No public rooms available");
@@ -534,6 +945,7 @@ public class ScribbleClient extends JFrame {
         for (int i = 1; i < parts.length; i++) {
             String[] roomInfo = parts[i].split(",");
             rooms[i - 1] = "Room " + roomInfo[0] + " - Players: " + roomInfo[1];
+            if (roomInfo.length > 3) rooms[i - 1] += " - " + roomInfo[2] + ", " + roomInfo[3];
         }
         
         String selected = (String) JOptionPane.showInputDialog(this,
@@ -542,7 +954,7 @@ public class ScribbleClient extends JFrame {
         
         if (selected != null) {
             String roomCode = selected.split(" ")[1];
-            out.println("JOIN_ROOM|" + roomCode);
+            send("JOIN_ROOM|" + roomCode);
         }
     }
 
@@ -553,6 +965,28 @@ public class ScribbleClient extends JFrame {
         }
     }
 
+    // Redraws only the panels a change touched
+    private void showRoomState(int changed) {
+        if ((changed & RoomState.ROSTER) != 0) {
+            java.util.List<String> list = new ArrayList<>();
+            list.add("PLAYER_LIST");
+            idToName.clear();
+            for (RoomState.Member member : roomState.members.values()) {
+                idToName.put(member.id, member.name);
+                list.add(member.id + "," + member.name + "," + member.color + "," + member.accessory);
+            }
+            updatePlayerList(list.toArray(new String[0]));
+        }
+        if ((changed & RoomState.SCORES) != 0) {
+            java.util.List<String> list = new ArrayList<>();
+            list.add("SCORES");
+            for (RoomState.Member member : roomState.members.values()) {
+                list.add(member.id + "," + member.score);
+            }
+            updateScores(list.toArray(new String[0]));
+        }
+    }
+
     private void updatePlayerList(String[] parts) {
         playerListPanel.removeAll();
         for (int i = 1; i < parts.length; i++) {
@@ -596,23 +1030,39 @@ public class ScribbleClient extends JFrame {
         scorePanel.repaint();
     }
 
-    class DrawingCanvas extends JPanel {
+    // Static so it can be built and painted without a window, e.g. headless
+    // in the benchmarks; client is only needed for local drawing
+    static class DrawingCanvas extends JPanel {
+        private final ScribbleClient client;
         private java.util.List<DrawPoint> points = new ArrayList<>();
         private Point lastPoint = null;
         private Color currentColor = Color.BLACK;
         private int currentBrushSize = 5;
         boolean fillMode = false;
+        private final StrokeCodec.Decoder strokeDecoder = new StrokeCodec.Decoder();
+        private Color networkColor = Color.BLACK;
+        // The room's drawing so far when we joined; live strokes paint over it
+        private java.awt.image.BufferedImage snapshot;
+        // Everything drawn so far. Segments are painted onto it once and a
+        // repaint only copies their bounds; points are replayed only when
+        // it has to be rebuilt. A VolatileImage once we are on screen.
+        private Image buffer;
+        private final BasicStroke[] strokes = new BasicStroke[64];
 
-        public DrawingCanvas() {
+        public DrawingCanvas(ScribbleClient client) {
+            this.client = client;
             setBackground(Color.WHITE);
             
             addMouseListener(new MouseAdapter() {
                 @Override
                 public void mousePressed(MouseEvent e) {
                     if (!isEnabled()) return;
-                    lastPoint = e.getPoint();
+                    lastPoint = canvasPoint(e);
                     if (fillMode) {
                         fill(e.getX(), e.getY());
+                    } else if (client.binaryStrokes) {
+                        client.sender.strokeBegin(currentColor.getRGB() & 0xFFFFFF, currentBrushSize,
+                            lastPoint.x, lastPoint.y);
                     }
                 }
                 
@@ -626,24 +1076,32 @@ public class ScribbleClient extends JFrame {
                 @Override
                 public void mouseDragged(MouseEvent e) {
                     if (!isEnabled() || fillMode) return;
-                    Point current = e.getPoint();
+                    Point current = canvasPoint(e);
                     if (lastPoint != null) {
                         DrawPoint dp = new DrawPoint(lastPoint.x, lastPoint.y, 
                             current.x, current.y, currentColor, currentBrushSize);
                         points.add(dp);
-                        repaint();
+                        paintNew(points.size() - 1);
                         
-                        String drawData = String.format("%d,%d,%d,%d,%d,%d,%d,%d",
-                            lastPoint.x, lastPoint.y, current.x, current.y,
-                            currentColor.getRed(), currentColor.getGreen(), 
-                            currentColor.getBlue(), currentBrushSize);
-                        out.println("DRAW|" + drawData);
+                        if (client.binaryStrokes) {
+                            client.sender.strokeLineTo(current.x, current.y);
+                        } else {
+                            client.sender.drawSegment(lastPoint.x, lastPoint.y, current.x, current.y,
+                                currentColor, currentBrushSize);
+                        }
                     }
                     lastPoint = current;
                 }
             });
         }
 
+        // Drags can leave the panel, and the server rejects strokes off the
+        // shared canvas
+        private static Point canvasPoint(MouseEvent e) {
+            return new Point(Math.max(0, Math.min(CanvasRaster.WIDTH - 1, e.getX())),
+                Math.max(0, Math.min(CanvasRaster.HEIGHT - 1, e.getY())));
+        }
+
         public void setColor(Color c) {
             currentColor = c;
         }
@@ -658,17 +1116,35 @@ public class ScribbleClient extends JFrame {
 
         public void clear() {
             points.clear();
-            repaint();
+            snapshot = null;
+            redrawAll();
         }
 
+        // Kept as a point of its own so a rebuilt buffer still has it; it
+        // covers everything drawn before, so that is dropped
         private void fill(int x, int y) {
-            Graphics g = getGraphics();
-            g.setColor(currentColor);
-            g.fillRect(0, 0, getWidth(), getHeight());
-            g.dispose();
+            points.clear();
+            snapshot = null;
+            points.add(DrawPoint.fill(currentColor));
+            redrawAll();
+        }
+
+        public void drawSegments(StrokeCodec.Segments segments) {
+            int from = points.size();
+            segments.forEach(this::addNetworkSegment);
+            paintNew(from);
+        }
+
+        private void addNetworkSegment(int x1, int y1, int x2, int y2, int rgb, int size) {
+            if ((networkColor.getRGB() & 0xFFFFFF) != rgb) networkColor = new Color(rgb);
+            points.add(new DrawPoint(x1, y1, x2, y2, networkColor, size));
         }
 
         public void drawFromNetwork(String data) {
+            if (addNetworkSegment(data)) paintNew(points.size() - 1);
+        }
+
+        private boolean addNetworkSegment(String data) {
             String[] parts = data.split(",");
             if (parts.length >= 8) {
                 int x1 = Integer.parseInt(parts[0]);
@@ -682,29 +1158,198 @@ public class ScribbleClient extends JFrame {
                 
                 DrawPoint dp = new DrawPoint(x1, y1, x2, y2, c, size);
                 points.add(dp);
+                return true;
+            }
+            return false;
+        }
+
+        public void drawBatchFromNetwork(String data) {
+            int from = points.size();
+            for (String segment : data.split(";")) {
+                addNetworkSegment(segment);
+            }
+            paintNew(from);
+        }
+
+        public void drawStrokeFromNetwork(String encoded) {
+            try {
+                drawStrokeFromNetwork(Base64.getDecoder().decode(encoded));
+            } catch (IllegalArgumentException e) {
+                // Not base64
+            }
+        }
+
+        public void drawStrokeFromNetwork(byte[] stroke) {
+            int from = points.size();
+            try {
+                strokeDecoder.decode(stroke, this::addNetworkSegment);
+            } catch (IllegalArgumentException e) {
+                // Keep the segments decoded before the damage
+            }
+            paintNew(from);
+        }
+
+        public void setSnapshot(String encoded) {
+            try {
+                setSnapshot(Base64.getDecoder().decode(encoded));
+            } catch (IllegalArgumentException e) {
+                // Not base64
+            }
+        }
+
+        public void setSnapshot(byte[] raster) {
+            try {
+                snapshot = CanvasRaster.decode(raster);
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+            // Strokes we already have go over it, as they did on the server
+            redrawAll();
+        }
+
+        // Paints points from index from onwards onto the buffer and repaints
+        // just the area they cover
+        private void paintNew(int from) {
+            if (from >= points.size()) return;
+            if (!prepareBuffer()) {
                 repaint();
+                return;
+            }
+            Graphics2D g = bufferGraphics();
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int i = from; i < points.size(); i++) {
+                DrawPoint dp = points.get(i);
+                paintSegment(g, dp);
+                // Round caps and antialiasing reach past the line's end points
+                int reach = dp.brushSize / 2 + 2;
+                minX = Math.min(minX, Math.min(dp.x1, dp.x2) - reach);
+                minY = Math.min(minY, Math.min(dp.y1, dp.y2) - reach);
+                maxX = Math.max(maxX, Math.max(dp.x1, dp.x2) + reach);
+                maxY = Math.max(maxY, Math.max(dp.y1, dp.y2) + reach);
             }
+            g.dispose();
+            repaint(new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1));
+        }
+
+        private void redrawAll() {
+            if (prepareBuffer()) redraw();
+            repaint();
+        }
+
+        // Makes sure the buffer exists, covers the canvas and still holds the
+        // drawing. False when it had to be redrawn from points, which also
+        // painted any that were just added.
+        private boolean prepareBuffer() {
+            int width = Math.max(getWidth(), CanvasRaster.WIDTH);
+            int height = Math.max(getHeight(), CanvasRaster.HEIGHT);
+            if (buffer == null || buffer.getWidth(null) < width || buffer.getHeight(null) < height) {
+                if (buffer != null) buffer.flush();
+                buffer = createBuffer(width, height);
+                redraw();
+                return false;
+            }
+            if (buffer instanceof java.awt.image.VolatileImage) {
+                java.awt.image.VolatileImage image = (java.awt.image.VolatileImage) buffer;
+                int status = image.validate(getGraphicsConfiguration());
+                if (status == java.awt.image.VolatileImage.IMAGE_INCOMPATIBLE) {
+                    // Moved to another screen
+                    image.flush();
+                    buffer = createBuffer(image.getWidth(), image.getHeight());
+                }
+                if (status != java.awt.image.VolatileImage.IMAGE_OK) {
+                    redraw();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Off screen, and in the benchmarks, there is no VolatileImage to be had
+        private Image createBuffer(int width, int height) {
+            Image image = isDisplayable() ? createVolatileImage(width, height) : null;
+            return image != null ? image : new java.awt.image.BufferedImage(width, height,
+                java.awt.image.BufferedImage.TYPE_INT_RGB);
         }
 
         @Override
-        protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            Graphics2D g2d = (Graphics2D) g;
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, 
-                               RenderingHints.VALUE_ANTIALIAS_ON);
-            
+        public void addNotify() {
+            super.addNotify();
+            // Now on screen: move what was drawn before onto an accelerated buffer
+            if (buffer instanceof java.awt.image.BufferedImage) {
+                Image accelerated = createVolatileImage(buffer.getWidth(null), buffer.getHeight(null));
+                if (accelerated == null) return;
+                Graphics g = accelerated.getGraphics();
+                g.drawImage(buffer, 0, 0, null);
+                g.dispose();
+                buffer.flush();
+                buffer = accelerated;
+            }
+        }
+
+        private Graphics2D bufferGraphics() {
+            Graphics2D g = (Graphics2D) buffer.getGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            return g;
+        }
+
+        private void redraw() {
+            Graphics2D g = bufferGraphics();
+            g.setColor(getBackground());
+            g.fillRect(0, 0, buffer.getWidth(null), buffer.getHeight(null));
+            if (snapshot != null) g.drawImage(snapshot, 0, 0, null);
             for (DrawPoint dp : points) {
-                g2d.setColor(dp.color);
-                g2d.setStroke(new BasicStroke(dp.brushSize, 
-                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                g2d.drawLine(dp.x1, dp.y1, dp.x2, dp.y2);
+                paintSegment(g, dp);
+            }
+            g.dispose();
+        }
+
+        private void paintSegment(Graphics2D g, DrawPoint dp) {
+            // Runs of segments share a color; setting it again is not free
+            if (!dp.color.equals(g.getColor())) g.setColor(dp.color);
+            if (dp.fill) {
+                g.fillRect(0, 0, buffer.getWidth(null), buffer.getHeight(null));
+                return;
+            }
+            g.setStroke(stroke(dp.brushSize));
+            g.drawLine(dp.x1, dp.y1, dp.x2, dp.y2);
+        }
+
+        // Every stroke is round-capped and round-joined, so one per brush size
+        private BasicStroke stroke(int size) {
+            if (size < 0 || size >= strokes.length) {
+                return new BasicStroke(size, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            }
+            BasicStroke stroke = strokes[size];
+            if (stroke == null) {
+                stroke = new BasicStroke(size, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+                strokes[size] = stroke;
             }
+            return stroke;
+        }
+
+        // Only the clip is copied; the strokes are already on the buffer
+        @Override
+        protected void paintComponent(Graphics g) {
+            do {
+                prepareBuffer();
+                g.drawImage(buffer, 0, 0, null);
+            } while (buffer instanceof java.awt.image.VolatileImage
+                && ((java.awt.image.VolatileImage) buffer).contentsLost());
         }
     }
 
     static class DrawPoint {
         int x1, y1, x2, y2, brushSize;
         Color color;
+        // The whole canvas in color rather than a line
+        boolean fill;
+
+        static DrawPoint fill(Color color) {
+            DrawPoint dp = new DrawPoint(0, 0, 0, 0, color, 0);
+            dp.fill = true;
+            return dp;
+        }
 
         DrawPoint(int x1, int y1, int x2, int y2, Color color, int brushSize) {
             this.x1 = x1;
@@ -0,0 +1,321 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Gateway for cluster mode. Clients connect here as if it were a server;
+// each one is proxied to a home node until it joins a room, at which point
+// the connection is moved to the node that owns the room code. Room lists
+// are gathered from every node.
+//
+//   java ScribbleServer --port=5601 --cluster=127.0.0.1:5601,127.0.0.1:5602
+//   java ScribbleServer --port=5602 --cluster=127.0.0.1:5601,127.0.0.1:5602
+//   java ScribbleRouter --port=5555 --nodes=127.0.0.1:5601,127.0.0.1:5602
+public class ScribbleRouter {
+    private static final int PORT = 5555;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int LIST_TIMEOUT_MS = 1000;
+    private static HashRing ring;
+    private static final AtomicInteger nextHome = new AtomicInteger();
+    private static final ExecutorService listPool = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "router-list");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void main(String[] args) {
+        int port = ScribbleServer.intOption(args, "port", PORT);
+        String nodes = ScribbleServer.option(args, "nodes", null);
+        if (nodes == null) {
+            System.out.println("Usage: java ScribbleRouter [--port=5555] --nodes=host:port,host:port,...");
+            return;
+        }
+        ring = HashRing.parse(nodes);
+        System.out.println("Scribble.io Router on port " + port + " for " + ring.nodes().size() + " nodes");
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                ClientRoute route = new ClientRoute(socket);
+                if (VirtualThreads.supported()) {
+                    VirtualThreads.start(route);
+                } else {
+                    new Thread(route).start();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Asks every node in parallel for all of its rooms, then filters and
+    // pages the merged directory; nodes that do not answer in time are left out
+    static String listPublicRooms(String query) {
+        List<Future<String>> replies = new ArrayList<>();
+        for (String node : ring.nodes()) {
+            replies.add(listPool.submit(() -> queryRoomList(node)));
+        }
+        Map<String, RoomDirectory.Entry> entries = new TreeMap<>();
+        for (Future<String> reply : replies) {
+            try {
+                String rooms = reply.get(LIST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (rooms != null && rooms.startsWith("ROOM_LIST")) {
+                    for (String encoded : rooms.split("\\|")) {
+                        RoomDirectory.Entry entry = RoomDirectory.Entry.parse(encoded);
+                        if (entry != null) entries.put(entry.code, entry);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                reply.cancel(true);
+            }
+        }
+        return query == null ? RoomDirectory.listAll(entries.values())
+            : RoomDirectory.listPage(entries.values(), query);
+    }
+
+    private static String queryRoomList(String node) throws IOException {
+        try (Socket socket = connect(node)) {
+            socket.setSoTimeout(LIST_TIMEOUT_MS);
+            socket.getOutputStream().write("LIST_ROOMS\n".getBytes(StandardCharsets.UTF_8));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            return reader.readLine();
+        }
+    }
+
+    static String withoutCapability(String capsLine, String capability) {
+        List<String> requested = new ArrayList<>(Arrays.asList(capsLine.substring("CAPS|".length()).split(",")));
+        requested.remove(capability);
+        return "CAPS|" + String.join(",", requested);
+    }
+
+    static Socket connect(String node) throws IOException {
+        int colon = node.lastIndexOf(':');
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1))),
+            CONNECT_TIMEOUT_MS);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    static class ClientRoute implements Runnable {
+        private final Socket client;
+        private OutputStream toClient;
+        // Replayed to a node when the connection moves, so it sees the same
+        // player; only the latest of each command is kept
+        private final Map<String, String> handshake = new LinkedHashMap<>();
+        // Guarded by this; swapped when the client moves to another node
+        private Socket upstream;
+        private OutputStream toNode;
+        private String node;
+        // Guarded by this; other nodes' lobby diffs while the client browses
+        private final List<Socket> lobbyFeeds = new ArrayList<>();
+
+        ClientRoute(Socket client) {
+            this.client = client;
+        }
+
+        @Override
+        public void run() {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                toClient = new BufferedOutputStream(client.getOutputStream());
+                List<String> nodes = ring.nodes();
+                attach(nodes.get(Math.floorMod(nextHome.getAndIncrement(), nodes.size())));
+
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int bar = line.indexOf('|');
+                    String command = bar < 0 ? line : line.substring(0, bar);
+                    switch (command) {
+                        case "PROTO":
+                            // The router works on lines, so its clients stay on text
+                            toClient(Frame.DECLINED);
+                            continue;
+                        case "CAPS":
+                            // Node output is relayed line by line, so it cannot be compressed
+                            line = withoutCapability(line, LineCompression.CAPABILITY);
+                            handshake.put(command, line);
+                            break;
+                        case "SET_NAME":
+                        case "SET_AVATAR":
+                            handshake.put(command, line);
+                            break;
+                        case "LIST_ROOMS":
+                            toClient(listPublicRooms(bar < 0 ? null : line.substring(bar + 1)));
+                            continue;
+                        case "LOBBY_SUBSCRIBE":
+                            // The home node's own diffs come through the pump
+                            subscribeLobby();
+                            break;
+                        case "LOBBY_UNSUBSCRIBE":
+                        case "CREATE_ROOM":
+                            closeLobbyFeeds();
+                            break;
+                        case "JOIN_ROOM":
+                        case "RESUME":
+                            closeLobbyFeeds();
+                            // Both end with the room code
+                            String owner = ring.owner(RoomCodeAllocator.normalize(line.substring(line.lastIndexOf('|') + 1)));
+                            if (!owner.equals(node)) {
+                                try {
+                                    attach(owner);
+                                } catch (IOException e) {
+                                    toClient("ERROR|Room server unavailable");
+                                    continue;
+                                }
+                            }
+                            break;
+                    }
+                    toNode(line);
+                }
+            } catch (IOException e) {
+                System.out.println("Router client disconnected");
+            } finally {
+                closeLobbyFeeds();
+                detach();
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Connects before dropping the old node, so a failed move leaves the
+        // client where it was
+        private void attach(String target) throws IOException {
+            Socket socket = connect(target);
+            OutputStream stream = new BufferedOutputStream(socket.getOutputStream());
+            detach();
+            synchronized (this) {
+                upstream = socket;
+                toNode = stream;
+                node = target;
+            }
+            Thread pump = new Thread(() -> pump(socket), "router-pump");
+            pump.setDaemon(true);
+            pump.start();
+            for (String line : handshake.values()) {
+                toNode(line);
+            }
+        }
+
+        private synchronized void detach() {
+            if (upstream == null) return;
+            try {
+                upstream.close();
+            } catch (IOException ignored) {
+            }
+            upstream = null;
+            toNode = null;
+            node = null;
+        }
+
+        // One subscription on every other node, whose diffs are merged into
+        // the client's stream; the client already applies them as they come
+        private void subscribeLobby() {
+            closeLobbyFeeds();
+            for (String other : ring.nodes()) {
+                if (other.equals(node)) continue;
+                try {
+                    Socket feed = connect(other);
+                    feed.getOutputStream().write("LOBBY_SUBSCRIBE\n".getBytes(StandardCharsets.UTF_8));
+                    synchronized (this) {
+                        lobbyFeeds.add(feed);
+                    }
+                    Thread pump = new Thread(() -> pumpLobby(feed), "router-lobby");
+                    pump.setDaemon(true);
+                    pump.start();
+                } catch (IOException e) {
+                    System.out.println("Lobby feed from " + other + " unavailable");
+                }
+            }
+        }
+
+        private void pumpLobby(Socket feed) {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(feed.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.startsWith("ROOM_DIFF")) continue;
+                    synchronized (this) {
+                        if (!lobbyFeeds.contains(feed)) return;
+                        toClient(line);
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        private synchronized void closeLobbyFeeds() {
+            for (Socket feed : lobbyFeeds) {
+                try {
+                    feed.close();
+                } catch (IOException ignored) {
+                }
+            }
+            lobbyFeeds.clear();
+        }
+
+        private void toNode(String line) throws IOException {
+            OutputStream stream;
+            synchronized (this) {
+                stream = toNode;
+            }
+            if (stream == null) throw new IOException("No node attached");
+            stream.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            stream.flush();
+        }
+
+        private synchronized void toClient(String line) throws IOException {
+            toClient.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            toClient.flush();
+        }
+
+        // Copies whole lines from a node to the client. Lines from a node the
+        // client has already left are dropped, so a move never splices two
+        // streams mid-line.
+        private void pump(Socket from) {
+            byte[] buffer = new byte[NioEngine.BUFFER_SIZE];
+            int length = 0;
+            try {
+                InputStream stream = from.getInputStream();
+                int n;
+                while ((n = stream.read(buffer, length, buffer.length - length)) > 0) {
+                    length += n;
+                    int end = length;
+                    while (end > 0 && buffer[end - 1] != '\n') end--;
+                    if (end > 0) {
+                        synchronized (this) {
+                            if (from != upstream) return;
+                            toClient.write(buffer, 0, end);
+                            toClient.flush();
+                        }
+                        System.arraycopy(buffer, end, buffer, 0, length - end);
+                        length -= end;
+                    }
+                    if (length == buffer.length) {
+                        if (length >= NioEngine.MAX_LINE) break;
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                }
+            } catch (IOException ignored) {
+            } finally {
+                // The node went away while the client was still on it
+                synchronized (this) {
+                    if (from == upstream) {
+                        try {
+                            client.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
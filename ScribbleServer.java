@@ -1,89 +1,340 @@
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Predicate;
 
 public class ScribbleServer {
     private static final int PORT = 5555;
     private static Map<String, GameRoom> rooms = new ConcurrentHashMap<>();
-    private static List<ClientHandler> clients = new CopyOnWriteArrayList<>();
-    private static Set<String> profanityList = new HashSet<>(Arrays.asList(
-        "badword1", "badword2", "inappropriate"
+    static List<ClientHandler> clients = new CopyOnWriteArrayList<>();
+    // One scheduler for every room deadline, hint tick and housekeeping task
+    static final TimingWheel timers = new TimingWheel(10, 512);
+    // Public rooms as the lobby sees them
+    static final RoomDirectory directory = new RoomDirectory();
+    // Each room's state is only touched on the loop its code hashes to
+    static RoomEventLoops roomLoops = new RoomEventLoops("scribble-room", Runtime.getRuntime().availableProcessors());
+    // Canvas rasters and snapshot encoding stay off the room loops
+    static RoomEventLoops rasterLoops = new RoomEventLoops("scribble-raster",
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    // Cluster mode: this node only creates rooms whose codes it owns
+    static HashRing ring;
+    static String nodeId;
+    static RoomCodeAllocator roomCodes = new RoomCodeAllocator(code -> true, 1);
+    // Lifetime stats and the leaderboard, opened in main
+    static StatsStore stats;
+    // Optional protocol features a client may ask for with CAPS|a,b,...
+    static final Set<String> SERVER_CAPABILITIES = new HashSet<>(Arrays.asList(
+        StrokeCodec.CAPABILITY, StrokeCodec.BATCH_CAPABILITY, CanvasRaster.CAPABILITY, Session.CAPABILITY,
+        RoomState.CAPABILITY, LineCompression.CAPABILITY
     ));
 
     public static void main(String[] args) {
-        System.out.println("Scribble.io Server starting on port " + PORT);
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+        // Rooms rasterize their canvas with AWT, which must not need a display
+        if (System.getProperty("java.awt.headless") == null) System.setProperty("java.awt.headless", "true");
+        int port = intOption(args, "port", PORT);
+        String engine = option(args, "engine", "nio");
+        OutboundQueue.policy = OutboundQueue.Policy.valueOf(option(args, "slow-policy", "lod").toUpperCase());
+        OutboundQueue.softBudgetBytes = intOption(args, "soft-budget-kb", 64) * 1024L;
+        OutboundQueue.hardBudgetBytes = intOption(args, "hard-budget-kb", 512) * 1024L;
+        OutboundQueue.lagTimeoutMillis = intOption(args, "lag-timeout-ms", 15000);
+        roomLoops = new RoomEventLoops("scribble-room",
+            intOption(args, "room-loops", Runtime.getRuntime().availableProcessors()));
+        rasterLoops = new RoomEventLoops("scribble-raster",
+            intOption(args, "raster-threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+        Session.graceMillis = intOption(args, "resume-grace-s", 30) * 1000L;
+        LineCompression.level = intOption(args, "deflate-level", 1);
+        WordDictionary.directory = java.nio.file.Paths.get(option(args, "words-dir", "words"));
+        stats = StatsStore.open(java.nio.file.Paths.get(option(args, "stats-file", "stats.log")));
+        ProfanityFilter.watch(java.nio.file.Paths.get(option(args, "profanity-dir", "profanity")));
+        registerGauges();
+        Metrics.registerMBean();
+        int metricsPort = intOption(args, "metrics-port", 0);
+        if (metricsPort > 0) Metrics.serve(metricsPort);
+        String cluster = option(args, "cluster", null);
+        if (cluster != null) {
+            ring = HashRing.parse(cluster);
+            nodeId = option(args, "node-id", "127.0.0.1:" + port);
+            if (!ring.contains(nodeId)) {
+                System.out.println("Node " + nodeId + " is not part of cluster " + cluster);
+                return;
+            }
+            System.out.println("Cluster node " + nodeId + " of " + ring.nodes().size());
+            roomCodes = new RoomCodeAllocator(code -> nodeId.equals(ring.owner(code)), ring.nodes().size());
+        }
+        startLagReporter();
+        startRoomCodeReporter(null);
+        System.out.println("Scribble.io Server starting on port " + port + " (" + engine + " engine)");
+        try {
+            if (engine.equals("nio")) {
+                int ioThreads = intOption(args, "io-threads", Runtime.getRuntime().availableProcessors());
+                new NioEngine(port, ioThreads).run();
+            } else if (engine.equals("virtual") && VirtualThreads.supported()) {
+                VirtualThreads.enabled = true;
+                runThreadPerConnection(port);
+            } else {
+                if (engine.equals("virtual")) {
+                    System.out.println("Virtual threads need JDK 21+, using platform threads");
+                }
+                runThreadPerConnection(port);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Logs every client that is over its soft send budget
+    private static void startLagReporter() {
+        timers.schedule(10000, () -> {
+            for (ClientHandler client : clients) {
+                if (client.outbound.isLagging()) {
+                    System.out.println("Lagging: " + client.playerName + " in room " + client.currentRoom
+                        + " (" + client.queueDepth() + " messages, " + client.queuedBytes() + " bytes queued)");
+                }
+            }
+            startLagReporter();
+        });
+    }
+
+    private static void registerGauges() {
+        Metrics.gauge("connections", "Connected clients", () -> clients.size());
+        Metrics.gauge("rooms", "Open rooms", () -> rooms.size());
+        Metrics.gauge("games_active", "Rooms with a game in progress", () -> {
+            long active = 0;
+            for (GameRoom room : rooms.values()) {
+                if (room.gameActive) active++;
+            }
+            return active;
+        });
+        Metrics.gauge("timers_pending", "Callbacks waiting on the timing wheel", () -> timers.liveCount());
+        Metrics.gauge("room_loop_backlog", "Tasks queued on the room loops", () -> roomLoops.backlog());
+        Metrics.gauge("raster_backlog", "Tasks queued on the raster threads", () -> rasterLoops.backlog());
+        Metrics.gauge("outbound_queued_messages", "Messages queued to clients", () -> {
+            long total = 0;
+            for (ClientHandler client : clients) total += client.queueDepth();
+            return total;
+        });
+        Metrics.gauge("outbound_queued_bytes", "Bytes queued to clients", () -> {
+            long total = 0;
+            for (ClientHandler client : clients) total += client.queuedBytes();
+            return total;
+        });
+        Metrics.gauge("outbound_max_queued_bytes", "Bytes queued to the furthest behind client", () -> {
+            long max = 0;
+            for (ClientHandler client : clients) max = Math.max(max, client.queuedBytes());
+            return max;
+        });
+        Metrics.gauge("room_codes_allocated", "Room codes in use on this node", () -> roomCodes.allocated());
+    }
+
+    // Logs how full the room code spaces are whenever the count has changed
+    private static void startRoomCodeReporter(String previous) {
+        timers.schedule(60000, () -> {
+            String occupancy = roomCodes.occupancy();
+            if (!occupancy.equals(previous)) System.out.println("Room codes: " + occupancy);
+            startRoomCodeReporter(occupancy);
+        });
+    }
+
+    private static void runThreadPerConnection(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
             while (true) {
                 Socket socket = serverSocket.accept();
                 ClientHandler handler = new ClientHandler(socket);
                 clients.add(handler);
-                new Thread(handler).start();
+                Metrics.connectionsAccepted.increment();
+                if (VirtualThreads.enabled) {
+                    VirtualThreads.start(handler);
+                } else {
+                    new Thread(handler).start();
+                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
+    // Options are passed as --name=value
+    static String option(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return arg.substring(prefix.length());
+        }
+        return defaultValue;
+    }
+
+    static int intOption(String[] args, String name, int defaultValue) {
+        return Integer.parseInt(option(args, name, String.valueOf(defaultValue)));
+    }
+
+    // Handle for a pending room timer callback
+    interface Cancellable {
+        void cancel();
+    }
+
     static class ClientHandler implements Runnable {
         private Socket socket;
-        private PrintWriter out;
-        private BufferedReader in;
+        private NioEngine.Connection connection;
+        // Blocking engines drain this on a dedicated writer thread, so a slow
+        // socket only ever stalls its own writer. The writer holds no monitor
+        // while blocked, which keeps virtual threads unpinned.
+        final OutboundQueue outbound = new OutboundQueue();
+        private OutputStream out;
+        private LineCompression.LineReader in;
         private String playerName;
         private String playerId;
-        private String currentRoom;
+        // Written on the room's loop, read by this client's reader
+        private volatile String currentRoom;
         private String avatarColor = "#FF5733";
         private String avatarAccessory = "none";
+        private final Set<String> capabilities = new HashSet<>();
+        private volatile boolean binaryStrokes = false;
+        private volatile boolean drawBatches = false;
+        private volatile boolean canvasSnapshots = false;
+        // Resumable clients get room messages as @seq|message
+        private volatile boolean resumable = false;
+        // Gets STATE and DELTA instead of whole PLAYER_LIST and SCORES
+        volatile boolean roomState = false;
+        private boolean deflating = false;
+        // Protocol version 2 in both directions, after PROTO|2
+        volatile boolean framed = false;
+        private boolean greeted = false;
+        volatile Session session;
+        // Set first thing in cleanup. A join posted to a room checks it after
+        // setting currentRoom, so either the join backs out or cleanup sees
+        // the room and removes the player after it.
+        private volatile boolean closed = false;
+        private final StrokeCodec.Decoder strokeDecoder = new StrokeCodec.Decoder();
 
         public ClientHandler(Socket socket) {
             this.socket = socket;
             this.playerId = UUID.randomUUID().toString();
         }
 
+        ClientHandler(NioEngine.Connection connection) {
+            this.connection = connection;
+            this.playerId = UUID.randomUUID().toString();
+        }
+
         @Override
         public void run() {
             try {
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream(), true);
+                in = new LineCompression.LineReader(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+                if (VirtualThreads.enabled) {
+                    VirtualThreads.start(this::writeLoop);
+                } else {
+                    Thread writer = new Thread(this::writeLoop, "scribble-writer");
+                    writer.setDaemon(true);
+                    writer.start();
+                }
 
-                String message;
-                while ((message = in.readLine()) != null) {
-                    processMessage(message);
+                Frame.Reader frame = new Frame.Reader();
+                while (true) {
+                    if (framed) {
+                        if (!in.readFrame(frame, Frame.MAX_CLIENT_FRAME)) break;
+                        processFrame(frame);
+                    } else {
+                        String message = in.readLine();
+                        if (message == null) break;
+                        processMessage(message);
+                    }
                 }
             } catch (IOException e) {
                 System.out.println("Client disconnected");
+            } catch (IllegalArgumentException e) {
+                // A malformed frame; the stream cannot be resynchronised
+                System.out.println("Client disconnected: " + e.getMessage());
             } finally {
                 cleanup();
             }
         }
 
-        private void processMessage(String message) {
+        private void writeLoop() {
+            LineCompression.Encoder deflater = null;
+            try {
+                byte[] line;
+                while ((line = outbound.take()) != null) {
+                    do {
+                        if (line == OutboundQueue.START_DEFLATE) {
+                            if (deflater == null) deflater = new LineCompression.Encoder();
+                        } else if (deflater != null) {
+                            deflater.write(line);
+                        } else {
+                            out.write(line);
+                        }
+                    } while ((line = outbound.poll()) != null);
+                    if (deflater != null) out.write(deflater.flush());
+                    out.flush();
+                }
+            } catch (InterruptedException | IOException e) {
+                // The reader side notices the broken socket and cleans up
+            } finally {
+                if (deflater != null) deflater.end();
+            }
+        }
+
+        // Timed on the connection's thread; work a command posts to its
+        // room shows up in the room loop backlog instead
+        void processMessage(String message) {
+            long started = System.nanoTime();
             String[] parts = message.split("\\|", 3);
             String command = parts[0];
 
             switch (command) {
+                case "PROTO":
+                    negotiateProtocol(parts.length > 1 ? parts[1] : "");
+                    break;
                 case "SET_NAME":
-                    playerName = parts[1];
-                    sendMessage("NAME_SET|" + playerId);
+                    setName(parts[1]);
                     break;
                 case "SET_AVATAR":
-                    avatarColor = parts[1];
-                    if (parts.length > 2) avatarAccessory = parts[2];
+                    setAvatar(parts[1], parts.length > 2 ? parts[2] : null);
                     break;
                 case "CREATE_ROOM":
                     createRoom(parts[1]);
                     break;
                 case "JOIN_ROOM":
-                    joinRoom(parts[1]);
+                    joinRoom(RoomCodeAllocator.normalize(parts[1]));
                     break;
                 case "LIST_ROOMS":
-                    listRooms();
+                    deliver(directory.list(parts.length > 1 ? parts[1] : null));
+                    break;
+                case "LEADERBOARD":
+                    deliver(stats.leaderboard());
+                    break;
+                case "STATS":
+                    stats.sendStats(this, parts.length > 1 ? parts[1] : playerName);
+                    break;
+                case "LOBBY_SUBSCRIBE":
+                    directory.subscribe(this);
+                    break;
+                case "LOBBY_UNSUBSCRIBE":
+                    directory.unsubscribe(this);
                     break;
                 case "START_GAME":
                     startGame();
                     break;
                 case "DRAW":
-                    broadcastToRoom("DRAW|" + parts[1]);
+                case "DRAW_BATCH":
+                    relayDrawing(parts[1]);
+                    break;
+                case "STROKE":
+                    relayStroke(parts[1]);
+                    break;
+                case "CAPS":
+                    negotiateCapabilities(parts[1]);
+                    break;
+                case "CLEAR":
+                    clearCanvas();
+                    break;
+                case "RESYNC":
+                    requestState();
+                    break;
+                case "SNAPSHOT":
+                    requestSnapshot();
+                    break;
+                case "RESUME":
+                    resumeSession(parts[1], parseSequence(parts.length > 2 ? parts[2] : "0"));
                     break;
                 case "GUESS":
                     handleGuess(parts[1]);
@@ -98,51 +349,265 @@ public class ScribbleServer {
                     configureRoom(parts[1]);
                     break;
             }
+            greeted = true;
+            Metrics.command(command, System.nanoTime() - started);
+        }
+
+        // Protocol version 2 commands by opcode; each decodes its own fields
+        private static final Frame.Table<ClientHandler> FRAMES = new Frame.Table<ClientHandler>()
+            .on(Frame.SET_NAME, (client, frame) -> client.setName(frame.string()))
+            .on(Frame.SET_AVATAR, (client, frame) ->
+                client.setAvatar(frame.string(), frame.hasMore() ? frame.string() : null))
+            .on(Frame.CREATE_ROOM, (client, frame) -> client.createRoom(frame.string()))
+            .on(Frame.JOIN_ROOM, (client, frame) -> client.joinRoom(RoomCodeAllocator.normalize(frame.string())))
+            .on(Frame.LIST_ROOMS, (client, frame) ->
+                client.deliver(directory.list(frame.hasMore() ? frame.string() : null)))
+            .on(Frame.LEADERBOARD, (client, frame) -> client.deliver(stats.leaderboard()))
+            .on(Frame.STATS, (client, frame) ->
+                stats.sendStats(client, frame.hasMore() ? frame.string() : client.playerName))
+            .on(Frame.LOBBY_SUBSCRIBE, (client, frame) -> directory.subscribe(client))
+            .on(Frame.LOBBY_UNSUBSCRIBE, (client, frame) -> directory.unsubscribe(client))
+            .on(Frame.START_GAME, (client, frame) -> client.startGame())
+            .on(Frame.DRAW, ClientHandler::relayDrawing)
+            .on(Frame.DRAW_BATCH, ClientHandler::relayDrawing)
+            .on(Frame.STROKE, (client, frame) -> {
+                byte[] data = frame.bytes();
+                client.relayStroke(data, Base64.getEncoder().encodeToString(data));
+            })
+            .on(Frame.CAPS, (client, frame) -> client.negotiateCapabilities(frame.string()))
+            .on(Frame.CLEAR, (client, frame) -> client.clearCanvas())
+            .on(Frame.RESYNC, (client, frame) -> client.requestState())
+            .on(Frame.SNAPSHOT, (client, frame) -> client.requestSnapshot())
+            .on(Frame.RESUME, (client, frame) ->
+                client.resumeSession(frame.string(), frame.hasMore() ? frame.longInteger() : 0))
+            .on(Frame.GUESS, (client, frame) -> client.handleGuess(frame.string()))
+            .on(Frame.CHAT, (client, frame) -> client.handleChat(frame.string()))
+            .on(Frame.SELECT_WORD, (client, frame) -> client.selectWord(frame.integer()))
+            .on(Frame.CONFIGURE, (client, frame) -> client.configureRoom(frame.string()));
+
+        void processFrame(Frame.Reader frame) {
+            long started = System.nanoTime();
+            if (!FRAMES.dispatch(this, frame)) {
+                // Text the client had no framed form for
+                if (frame.opcode() == Frame.LINE) processMessage(frame.string());
+                return;
+            }
+            Metrics.command(Frame.name(frame.opcode()), System.nanoTime() - started);
+        }
+
+        // Only as the first message: nothing can have been queued for the
+        // connection yet, so the reply is the last text it is sent
+        private void negotiateProtocol(String version) {
+            if (greeted || !version.equals(String.valueOf(Frame.VERSION))) {
+                sendMessage(Frame.DECLINED);
+                return;
+            }
+            sendMessage(Frame.HANDSHAKE);
+            outbound.useFrames();
+            framed = true;
+        }
+
+        private void setName(String name) {
+            // Names go into '|' and ',' separated lists
+            name = name.replaceAll("[\\t\\r\\n,|]", " ").trim();
+            if (name.isEmpty() || containsProfanity(name)) {
+                sendMessage("ERROR|Name not allowed");
+                if (playerName == null) playerName = "Player-" + playerId.substring(0, 4);
+            } else {
+                playerName = name;
+            }
+            sendMessage("NAME_SET|" + playerId);
+        }
+
+        private void setAvatar(String color, String accessory) {
+            avatarColor = color;
+            if (accessory != null) avatarAccessory = accessory;
+        }
+
+        private void negotiateCapabilities(String requested) {
+            capabilities.clear();
+            for (String capability : requested.split(",")) {
+                if (SERVER_CAPABILITIES.contains(capability)) capabilities.add(capability);
+            }
+            binaryStrokes = capabilities.contains(StrokeCodec.CAPABILITY);
+            drawBatches = capabilities.contains(StrokeCodec.BATCH_CAPABILITY);
+            canvasSnapshots = capabilities.contains(CanvasRaster.CAPABILITY);
+            resumable = capabilities.contains(Session.CAPABILITY);
+            roomState = capabilities.contains(RoomState.CAPABILITY);
+            sendMessage("CAPS|" + String.join(",", capabilities));
+            // Once on, compression stays on for the connection
+            if (capabilities.contains(LineCompression.CAPABILITY) && !deflating) {
+                deflating = true;
+                outbound.startDeflate();
+            }
+        }
+
+        // Binary strokes are relayed untouched to clients that negotiated
+        // them and transcoded to text for everyone else
+        private void relayStroke(String encoded) {
+            byte[] data;
+            try {
+                data = Base64.getDecoder().decode(encoded);
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+            relayStroke(data, encoded);
+        }
+
+        private void relayStroke(byte[] data, String encoded) {
+            GameRoom room = rooms.get(currentRoom);
+            if (room == null) return;
+            StrokeCodec.Segments segments = new StrokeCodec.Segments();
+            try {
+                strokeDecoder.decode(data, segments);
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+            room.post(() -> room.broadcastStroke("STROKE|" + encoded, segments, this));
+        }
+
+        // DRAW carries one segment and DRAW_BATCH a frame's worth; both are
+        // relayed as a single unit
+        private void relayDrawing(String data) {
+            GameRoom room = rooms.get(currentRoom);
+            if (room == null) return;
+            StrokeCodec.Segments segments = new StrokeCodec.Segments();
+            if (segments.parseText(data)) {
+                room.post(() -> room.broadcastStroke(null, segments, this));
+            }
+        }
+
+        private void relayDrawing(Frame.Reader frame) {
+            GameRoom room = rooms.get(currentRoom);
+            if (room == null) return;
+            StrokeCodec.Segments segments = new StrokeCodec.Segments();
+            frame.segments(segments);
+            room.post(() -> room.broadcastStroke(null, segments, this));
+        }
+
+        private void clearCanvas() {
+            GameRoom room = rooms.get(currentRoom);
+            if (room != null) {
+                room.post(() -> room.clearCanvas(this));
+            }
+        }
+
+        // RESUME|token|lastSeq|roomCode from a new connection takes over the
+        // seat the session holds, if the room is still keeping it. The room
+        // code is only there for the cluster router.
+        private void resumeSession(String token, long seen) {
+            Session resumed = Session.find(token);
+            ClientHandler previous = resumed != null ? resumed.handler : null;
+            GameRoom room = previous != null && previous.currentRoom != null ? rooms.get(previous.currentRoom) : null;
+            if (room == null) {
+                sendMessage("RESUME_FAILED");
+                return;
+            }
+            room.post(() -> room.resume(resumed, this, seen));
+        }
+
+        // lastSeq|roomCode
+        private static long parseSequence(String lastSeq) {
+            try {
+                int bar = lastSeq.indexOf('|');
+                return Long.parseLong(bar < 0 ? lastSeq : lastSeq.substring(0, bar));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        // Takes on the identity of the connection it replaces. The reader
+        // ignores strokes until currentRoom is set, so the pen carried over
+        // here is in place before it decodes one.
+        void adopt(ClientHandler previous, Session session) {
+            strokeDecoder.continueFrom(previous.strokeDecoder);
+            playerId = previous.playerId;
+            playerName = previous.playerName;
+            avatarColor = previous.avatarColor;
+            avatarAccessory = previous.avatarAccessory;
+            currentRoom = previous.currentRoom;
+            this.session = session;
+        }
+
+        private void requestState() {
+            GameRoom room = rooms.get(currentRoom);
+            if (room != null) {
+                room.post(() -> {
+                    if (room.players.contains(this)) room.sendState(this);
+                });
+            }
+        }
+
+        private void requestSnapshot() {
+            GameRoom room = rooms.get(currentRoom);
+            if (room != null) {
+                room.post(() -> room.sendSnapshot(this));
+            }
         }
 
         private void createRoom(String config) {
             String[] settings = config.split(",");
-            String roomCode = generateRoomCode();
-            GameRoom room = new GameRoom(roomCode, this, settings);
+            String roomCode = roomCodes.allocate();
+            if (roomCode == null) {
+                sendMessage("ERROR|No room codes left");
+                return;
+            }
+            GameRoom room;
+            try {
+                room = new GameRoom(roomCode, this, settings);
+            } catch (NumberFormatException e) {
+                roomCodes.release(roomCode);
+                sendMessage("ERROR|Invalid room settings");
+                return;
+            }
             rooms.put(roomCode, room);
-            currentRoom = roomCode;
-            sendMessage("ROOM_CREATED|" + roomCode);
-            room.addPlayer(this);
+            directory.unsubscribe(this);
+            room.post(() -> {
+                currentRoom = roomCode;
+                if (closed) {
+                    room.close();
+                    return;
+                }
+                sendMessage("ROOM_CREATED|" + roomCode);
+                room.addPlayer(this);
+            });
         }
 
+        // The capacity check and the join happen together on the room's loop.
+        // ROOM_JOINED goes first so the client has its game view before the
+        // player list arrives.
         private void joinRoom(String roomCode) {
             GameRoom room = rooms.get(roomCode);
-            if (room != null && room.players.size() < room.maxPlayers) {
-                currentRoom = roomCode;
-                room.addPlayer(this);
-                sendMessage("ROOM_JOINED|" + roomCode);
-            } else {
+            if (room == null) {
                 sendMessage("ERROR|Room not found or full");
+                return;
             }
-        }
-
-        private void listRooms() {
-            StringBuilder roomList = new StringBuilder("ROOM_LIST");
-            for (GameRoom room : rooms.values()) {
-                if (!room.isPrivate) {
-                    roomList.append("|").append(room.roomCode).append(",")
-                           .append(room.players.size()).append("/").append(room.maxPlayers);
+            room.post(() -> {
+                if (room.closed || room.players.size() >= room.maxPlayers) {
+                    sendMessage("ERROR|Room not found or full");
+                    return;
                 }
-            }
-            sendMessage(roomList.toString());
+                currentRoom = roomCode;
+                if (closed) return;
+                directory.unsubscribe(this);
+                sendMessage("ROOM_JOINED|" + roomCode);
+                room.addPlayer(this);
+            });
         }
 
         private void startGame() {
             GameRoom room = rooms.get(currentRoom);
-            if (room != null && room.host == this) {
-                room.startGame();
+            if (room != null) {
+                room.post(() -> {
+                    if (room.host == this) room.startGame();
+                });
             }
         }
 
         private void handleGuess(String guess) {
             GameRoom room = rooms.get(currentRoom);
-            if (room != null && room.gameActive) {
-                room.processGuess(this, guess);
+            if (room != null) {
+                room.post(() -> room.processGuess(this, guess));
             }
         }
 
@@ -151,44 +616,91 @@ public class ScribbleServer {
                 sendMessage("ERROR|Message blocked");
                 return;
             }
-            broadcastToRoom("CHAT|" + playerName + "|" + msg);
+            broadcastToRoom("CHAT|" + playerName + "|" + msg, null);
         }
 
         private void selectWord(int index) {
             GameRoom room = rooms.get(currentRoom);
             if (room != null) {
-                room.selectWord(this, index);
+                room.post(() -> room.selectWord(this, index));
             }
         }
 
         private void configureRoom(String config) {
             GameRoom room = rooms.get(currentRoom);
-            if (room != null && room.host == this) {
-                room.configure(config);
+            if (room != null) {
+                room.post(() -> {
+                    if (room.host == this) room.configure(config);
+                });
             }
         }
 
-        private void broadcastToRoom(String message) {
+        private void broadcastToRoom(String message, ClientHandler exclude) {
             GameRoom room = rooms.get(currentRoom);
             if (room != null) {
-                room.broadcast(message);
+                room.post(() -> room.broadcast(message, exclude));
             }
         }
 
         void sendMessage(String message) {
-            if (out != null) {
-                out.println(message);
+            deliver(Packet.of(message));
+        }
+
+        // Never blocks: the packet is queued for this connection's writer
+        void deliver(Packet packet) {
+            if (!outbound.offer(packet)) {
+                System.out.println("Disconnecting slow client " + playerName + " ("
+                    + outbound.queuedBytes() + " bytes queued)");
+                disconnect();
+                return;
             }
+            if (connection != null) connection.requestFlush();
+        }
+
+        int queueDepth() {
+            return outbound.depth();
+        }
+
+        long queuedBytes() {
+            return outbound.queuedBytes();
         }
 
-        private void cleanup() {
-            clients.remove(this);
+        // Closing the socket unblocks the reader, which then runs cleanup on
+        // its own thread; a NIO connection is closed on its loop. Either way
+        // the caller, often a room loop mid-broadcast, never runs cleanup.
+        private void disconnect() {
+            outbound.close();
+            if (connection != null) {
+                connection.closeLater();
+                return;
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void cleanup() {
+            closed = true;
+            if (clients.remove(this)) Metrics.connectionsClosed.increment();
+            directory.unsubscribe(this);
             if (currentRoom != null) {
                 GameRoom room = rooms.get(currentRoom);
                 if (room != null) {
-                    room.removePlayer(this);
+                    // A resumable player keeps the seat for the grace window
+                    if (session != null) {
+                        room.post(() -> room.suspend(this));
+                    } else {
+                        room.post(() -> room.removePlayer(this));
+                    }
                 }
             }
+            if (connection != null) {
+                connection.close();
+                return;
+            }
+            outbound.close();
             try {
                 socket.close();
             } catch (IOException e) {
@@ -196,20 +708,18 @@ public class ScribbleServer {
             }
         }
 
-        private String generateRoomCode() {
-            return String.format("%04d", new Random().nextInt(10000));
-        }
-
         private boolean containsProfanity(String text) {
-            String lower = text.toLowerCase();
-            for (String word : profanityList) {
-                if (lower.contains(word)) return true;
-            }
-            return false;
+            return ProfanityFilter.containsProfanity(text);
         }
     }
 
+    // Everything below runs on the room's loop; handlers and timers post()
+    // to it instead of touching the fields themselves
     static class GameRoom {
+        static final Predicate<ClientHandler> WANTS_STATE = player -> player.roomState;
+        static final Predicate<ClientHandler> LEGACY = player -> !player.roomState;
+        enum Phase { LOBBY, CHOOSING, DRAWING, ROUND_OVER }
+
         String roomCode;
         ClientHandler host;
         List<ClientHandler> players = new CopyOnWriteArrayList<>();
@@ -221,77 +731,199 @@ public class ScribbleServer {
         int currentRound = 0;
         int currentPlayerIndex = 0;
         String currentWord = "";
+        GuessMatcher guessMatcher;
+        // For the players' lifetime stats: when the word was picked, and each
+        // player's correct guesses this game as {count, total millis}
+        private long drawingStartedNanos;
+        private final Map<String, long[]> guessTimes = new HashMap<>();
         String[] wordChoices;
         Map<String, Integer> scores = new ConcurrentHashMap<>();
         Map<String, Boolean> hasGuessed = new ConcurrentHashMap<>();
-        Timer roundTimer;
-        List<String> wordPool;
-        Set<String> customWords = new HashSet<>();
-        String language = "EN";
+        Phase phase = Phase.LOBBY;
+        boolean closed = false;
+        Cancellable roundTimer;
+        // Bumped whenever the round timer is replaced, so a callback that was
+        // already in the mailbox when it was cancelled is ignored
+        private int timerGeneration;
+        private final TimingWheel.Group timerGroup = timers.newGroup();
+        private final Executor loop;
+        private final StrokeLog strokeLog = new StrokeLog();
+        // Control messages are numbered so resuming players get only the gap
+        private long sequence;
+        private final ReplayRing replay = new ReplayRing(256);
+        // Version of the roster, scores and settings; see RoomState
+        private long stateVersion;
+        // Confined to rasterLane; canvasEpoch changes whenever it is wiped
+        private final CanvasRaster raster = new CanvasRaster();
+        private final Executor rasterLane;
+        private int canvasEpoch;
+        // Words come from the shared dictionary for the room's language; the
+        // deck remembers which were offered this game
+        WordDictionary dictionary = WordDictionary.forLanguage(WordDictionary.DEFAULT_LANGUAGE);
+        final List<String> customWords = new ArrayList<>();
+        String language = WordDictionary.DEFAULT_LANGUAGE;
+        private final WordDictionary.Deck deck = new WordDictionary.Deck();
 
         public GameRoom(String code, ClientHandler host, String[] settings) {
             this.roomCode = code;
             this.host = host;
+            this.loop = roomLoops.forRoom(code);
+            this.rasterLane = rasterLoops.forRoom(code);
             this.isPrivate = Boolean.parseBoolean(settings[0]);
             if (settings.length > 1) this.maxPlayers = Integer.parseInt(settings[1]);
             if (settings.length > 2) this.rounds = Integer.parseInt(settings[2]);
             if (settings.length > 3) this.drawTime = Integer.parseInt(settings[3]);
-            initializeWordPool();
         }
 
-        private void initializeWordPool() {
-            wordPool = new ArrayList<>(Arrays.asList(
-                "cat", "dog", "house", "tree", "car", "sun", "moon", "star",
-                "computer", "phone", "book", "chair", "table", "window", "door",
-                "apple", "banana", "pizza", "coffee", "airplane", "bicycle",
-                "guitar", "piano", "flower", "mountain", "ocean", "river",
-                "elephant", "giraffe", "penguin", "butterfly", "robot", "castle",
-                "rainbow", "umbrella", "glasses", "camera", "rocket", "astronaut"
-            ));
+        void post(Runnable task) {
+            loop.execute(task);
         }
 
         void addPlayer(ClientHandler player) {
 	    players.add(player);
        	    scores.put(player.playerId, 0);
+            if (player.resumable) {
+                player.session = new Session(player);
+                player.sendMessage("SESSION|" + player.session.token);
+            }
     
             // Broadcast to others that a new player joined (exclude new player)
-            for (ClientHandler p : players) {
-                if (p != player) {
-                     p.sendMessage("PLAYER_JOINED|" + player.playerName + "|" + player.playerId + "|" + player.avatarColor + "|" + player.avatarAccessory);
-                }
-            }
+            broadcast("PLAYER_JOINED|" + player.playerName + "|" + player.playerId + "|" + player.avatarColor + "|" + player.avatarAccessory, player, LEGACY);
+            publish("JOIN|" + member(player), player);
     
-            // Send full player list and scores only to the new player
-            player.sendMessage(buildPlayerList());
-            player.sendMessage(buildScores());
+            // The new player gets the whole room, everyone else the change
+            sendState(player);
+            sendCanvas(player);
+            directory.update(this);
+        }
+
+        private void sendCanvas(ClientHandler player) {
+            if (strokeLog.isEmpty()) return;
+            if (player.canvasSnapshots) {
+                // The raster does not tell the client where the drawer's pen is
+                player.outbound.restartStrokes();
+                sendSnapshot(player);
+            } else {
+                player.deliver(strokeLog.catchUp(player.binaryStrokes, player.drawBatches));
+            }
+        }
+
+        // Encoded on the raster thread, which has applied every stroke relayed
+        // before this call and none after. Delivery comes back through the
+        // room so a snapshot of a canvas that was wiped meanwhile is dropped.
+        void sendSnapshot(ClientHandler player) {
+            int epoch = canvasEpoch;
+            rasterLane.execute(() -> {
+                Packet snapshot = raster.snapshot();
+                post(() -> {
+                    if (epoch == canvasEpoch && players.contains(player)) player.deliver(snapshot);
+                });
+            });
+        }
+
+        private void wipeCanvas() {
+            strokeLog.clear();
+            canvasEpoch++;
+            rasterLane.execute(raster::clear);
+        }
+
+
+        // The connection dropped; the seat is held until the session resumes
+        // or the grace window runs out
+        void suspend(ClientHandler player) {
+            Session session = player.session;
+            if (session.handler != player) return;
+            if (!players.contains(player)) {
+                session.close();
+                return;
+            }
+            session.expiry = timerGroup.schedule(Session.graceMillis, () -> post(() -> {
+                if (session.handler == player) removePlayer(player);
+            }));
+        }
+
+        void resume(Session session, ClientHandler fresh, long lastSeq) {
+            ClientHandler previous = session.handler;
+            int index = players.indexOf(previous);
+            if (index < 0) {
+                fresh.sendMessage("RESUME_FAILED");
+                return;
+            }
+            if (session.expiry != null) session.expiry.cancel();
+            session.expiry = null;
+            fresh.adopt(previous, session);
+            session.handler = fresh;
+            players.set(index, fresh);
+            if (host == previous) host = fresh;
+            // Its cleanup sees the session has moved on and leaves the seat alone
+            previous.disconnect();
+
+            fresh.sendMessage("RESUMED|" + roomCode + "|" + fresh.playerId);
+            if (!replay.replay(lastSeq, session, fresh)) sendState(fresh);
+            // Strokes are not replayed; the canvas is sent whole instead
+            fresh.sendMessage("CLEAR");
+            sendCanvas(fresh);
         }
 
+        // The last player left, or the host went before the room was set up
+        void close() {
+            closed = true;
+            rooms.remove(roomCode, this);
+            directory.remove(roomCode);
+            // Only now can the code go to another room
+            roomCodes.release(roomCode);
+            timerGroup.cancelAll();
+        }
 
         void removePlayer(ClientHandler player) {
-            players.remove(player);
+            int index = players.indexOf(player);
+            if (index < 0) return;
+            if (player.session != null) player.session.close();
+            boolean wasDrawer = isDrawer(player);
+            players.remove(index);
             scores.remove(player.playerId);
-            broadcast("PLAYER_LEFT|" + player.playerId);
+            hasGuessed.remove(player.playerId);
+            broadcast("PLAYER_LEFT|" + player.playerId, null, LEGACY);
+            publish("LEAVE|" + player.playerId, null);
             if (players.isEmpty()) {
-                rooms.remove(roomCode);
-                if (roundTimer != null) roundTimer.cancel();
-            } else if (player == host && !players.isEmpty()) {
+                close();
+                return;
+            }
+            directory.update(this);
+            if (player == host) {
                 host = players.get(0);
-                broadcast("NEW_HOST|" + host.playerId);
+                broadcast("NEW_HOST|" + host.playerId, null, LEGACY);
+                publish("HOST|" + host.playerId, null);
             }
             sendPlayerList();
+            if (!gameActive) return;
+            // Keep the turn order pointing at the same next drawer
+            if (index < currentPlayerIndex) currentPlayerIndex--;
+            if (currentPlayerIndex >= players.size()) currentPlayerIndex = 0;
+            if (players.size() < 2) {
+                endGame();
+            } else if (wasDrawer && (phase == Phase.CHOOSING || phase == Phase.DRAWING)) {
+                phase = Phase.ROUND_OVER;
+                broadcast("ROUND_END|" + currentWord);
+                scheduleRoundTimer(5000, this::nextRound);
+            }
         }
 
         void startGame() {
             if (players.size() < 2) {
-                host.sendMessage("ERROR|Need at least 2 players");
+                unicast(host, "ERROR|Need at least 2 players");
                 return;
             }
             gameActive = true;
             currentRound = 0;
             currentPlayerIndex = 0;
+            deck.reset();
+            directory.update(this);
             for (String id : scores.keySet()) {
                 scores.put(id, 0);
             }
+            publish("RESET", null);
+            guessTimes.clear();
             broadcast("GAME_START|" + rounds);
             nextRound();
         }
@@ -302,96 +934,130 @@ public class ScribbleServer {
                 return;
             }
             currentRound++;
+            phase = Phase.CHOOSING;
+            currentWord = "";
             hasGuessed.clear();
+            wipeCanvas();
             broadcast("ROUND_START|" + currentRound + "|" + rounds);
             
             ClientHandler drawer = players.get(currentPlayerIndex);
             broadcast("DRAWER|" + drawer.playerId + "|" + drawer.playerName);
             
             wordChoices = selectRandomWords();
-            drawer.sendMessage("CHOOSE_WORD|" + String.join("|", wordChoices));
+            unicast(drawer, "CHOOSE_WORD|" + String.join("|", wordChoices));
             
             startRoundTimer();
         }
 
-        private String[] selectRandomWords() {
-            List<String> pool = new ArrayList<>(wordPool);
-            pool.addAll(customWords);
-            Collections.shuffle(pool);
-            return new String[]{pool.get(0), pool.get(1), pool.get(2)};
+        String[] selectRandomWords() {
+            Random random = ThreadLocalRandom.current();
+            String[] choices = new String[3];
+            for (int i = 0; i < choices.length; i++) {
+                choices[i] = deck.draw(dictionary, customWords, random);
+            }
+            return choices;
         }
 
         void selectWord(ClientHandler player, int index) {
-            if (players.get(currentPlayerIndex) != player) return;
-            
-            currentWord = wordChoices[index];
+            if (phase != Phase.CHOOSING || !isDrawer(player)) return;
+            if (index < 0 || index >= wordChoices.length) return;
+            beginDrawing(wordChoices[index]);
+        }
+
+        private void beginDrawing(String word) {
+            phase = Phase.DRAWING;
+            currentWord = word;
+            guessMatcher = new GuessMatcher(word);
+            drawingStartedNanos = System.nanoTime();
             String masked = getMaskedWord();
             broadcast("WORD_SELECTED|" + masked + "|" + currentWord.length());
-            
-            if (roundTimer != null) roundTimer.cancel();
             startDrawingTimer();
         }
 
-        private void startRoundTimer() {
+        // The wheel only posts the callback; it runs on the room's loop
+        private void scheduleRoundTimer(long delayMs, Runnable task) {
             if (roundTimer != null) roundTimer.cancel();
-            roundTimer = new Timer();
-            roundTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    autoSelectWord();
-                }
-            }, 15000);
+            int generation = ++timerGeneration;
+            roundTimer = timerGroup.schedule(delayMs, () -> post(() -> {
+                if (generation == timerGeneration) task.run();
+            }));
         }
 
-        private void startDrawingTimer() {
+        private void cancelRoundTimer() {
             if (roundTimer != null) roundTimer.cancel();
-            roundTimer = new Timer();
-            
-            long startTime = System.currentTimeMillis();
-            roundTimer.scheduleAtFixedRate(new TimerTask() {
-                int elapsed = 0;
-                @Override
-                public void run() {
-                    elapsed++;
-                    broadcast("TIMER|" + (drawTime - elapsed));
-                    
-                    if (elapsed % 20 == 0 && hasGuessed.size() < players.size() - 1) {
-                        revealHint();
-                    }
-                    
-                    if (elapsed >= drawTime || hasGuessed.size() >= players.size() - 1) {
-                        endRound();
-                        cancel();
-                    }
+            roundTimer = null;
+            timerGeneration++;
+        }
+
+        private void startRoundTimer() {
+            scheduleRoundTimer(15000, this::autoSelectWord);
+        }
+
+        private void startDrawingTimer() {
+            scheduleDrawingTick(System.currentTimeMillis(), 1);
+        }
+
+        private void scheduleDrawingTick(long startTime, int elapsed) {
+            long delay = Math.max(0, startTime + elapsed * 1000L - System.currentTimeMillis());
+            scheduleRoundTimer(delay, () -> {
+                broadcast("TIMER|" + (drawTime - elapsed));
+
+                if (elapsed % 20 == 0 && hasGuessed.size() < players.size() - 1) {
+                    revealHint();
                 }
-            }, 1000, 1000);
+
+                if (elapsed >= drawTime || hasGuessed.size() >= players.size() - 1) {
+                    endRound();
+                } else {
+                    scheduleDrawingTick(startTime, elapsed + 1);
+                }
+            });
         }
 
         private void autoSelectWord() {
-            currentWord = wordChoices[0];
-            String masked = getMaskedWord();
-            broadcast("WORD_SELECTED|" + masked + "|" + currentWord.length());
-            startDrawingTimer();
+            if (phase != Phase.CHOOSING) return;
+            beginDrawing(wordChoices[0]);
         }
 
         void processGuess(ClientHandler player, String guess) {
-            if (hasGuessed.containsKey(player.playerId)) return;
-            if (players.get(currentPlayerIndex) == player) return;
-            
-            String cleanGuess = guess.trim().toLowerCase();
-            String cleanWord = currentWord.toLowerCase();
-            
-            if (cleanGuess.equals(cleanWord)) {
+            if (!gameActive) return;
+            // Outside the drawing phase there is no word to match against
+            boolean drawing = phase == Phase.DRAWING;
+            if (drawing && hasGuessed.containsKey(player.playerId)) return;
+            if (drawing && players.get(currentPlayerIndex) == player) return;
+            int match = drawing ? guessMatcher.match(guess) : GuessMatcher.MISS;
+            // In every phase, but a word that trips the filter can still be guessed
+            if (match != GuessMatcher.EXACT && ProfanityFilter.containsProfanity(guess)) {
+                unicast(player, "ERROR|Message blocked");
+                return;
+            }
+            if (!drawing) {
+                broadcast("CHAT|" + player.playerName + "|" + guess);
+                return;
+            }
+
+            if (match == GuessMatcher.EXACT) {
                 hasGuessed.put(player.playerId, true);
+                long[] times = guessTimes.computeIfAbsent(player.playerId, id -> new long[2]);
+                times[0]++;
+                times[1] += (System.nanoTime() - drawingStartedNanos) / 1_000_000;
                 int points = calculatePoints();
                 scores.put(player.playerId, scores.get(player.playerId) + points);
                 
                 broadcast("CORRECT_GUESS|" + player.playerId + "|" + player.playerName + "|" + points);
+                publish("SCORE|" + player.playerId + "," + scores.get(player.playerId), null);
                 sendScores();
                 
                 if (hasGuessed.size() >= players.size() - 1) {
                     endRound();
                 }
+            } else if (match == GuessMatcher.CLOSE) {
+                // Only the guesser learns that a guess was nearly right, and a
+                // near miss gives the word away, so only those who already
+                // know it see the guess itself
+                unicast(player, "CLOSE_GUESS|" + guess);
+                broadcast("CHAT|" + player.playerName + "|" + guess, null,
+                    p -> p == player || isDrawer(p) || hasGuessed.containsKey(p.playerId));
             } else {
                 broadcast("CHAT|" + player.playerName + "|" + guess);
             }
@@ -405,10 +1071,10 @@ public class ScribbleServer {
 
         private void revealHint() {
             String masked = getMaskedWord();
-            broadcast("HINT|" + masked);
+            broadcast(Packet.of("HINT|" + masked), p -> !isDrawer(p));
         }
 
-        private String getMaskedWord() {
+        String getMaskedWord() {
             int revealed = Math.min(currentWord.length() / 3, hasGuessed.size() / 2);
             char[] masked = new char[currentWord.length()];
             Arrays.fill(masked, '_');
@@ -426,38 +1092,48 @@ public class ScribbleServer {
             return new String(masked);
         }
 
+        // The last correct guess and the final tick can both ask to end the
+        // round; only the first one does
         private void endRound() {
-            if (roundTimer != null) roundTimer.cancel();
+            if (phase != Phase.DRAWING) return;
+            phase = Phase.ROUND_OVER;
+            cancelRoundTimer();
             broadcast("ROUND_END|" + currentWord);
             
             ClientHandler drawer = players.get(currentPlayerIndex);
             int drawerPoints = hasGuessed.size() * 20;
             scores.put(drawer.playerId, scores.get(drawer.playerId) + drawerPoints);
-            
+            publish("SCORE|" + drawer.playerId + "," + scores.get(drawer.playerId), null);
             sendScores();
             currentPlayerIndex = (currentPlayerIndex + 1) % players.size();
             
-            Timer nextRoundTimer = new Timer();
-            nextRoundTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    nextRound();
-                }
-            }, 5000);
+            scheduleRoundTimer(5000, this::nextRound);
         }
 
         private void endGame() {
             gameActive = false;
+            phase = Phase.LOBBY;
+            cancelRoundTimer();
             String winner = "";
+            String winnerId = null;
             int maxScore = 0;
             for (Map.Entry<String, Integer> entry : scores.entrySet()) {
                 if (entry.getValue() > maxScore) {
                     maxScore = entry.getValue();
+                    winnerId = entry.getKey();
                     winner = getPlayerName(entry.getKey());
                 }
             }
+            List<StatsStore.Result> results = new ArrayList<>();
+            for (ClientHandler p : players) {
+                long[] times = guessTimes.getOrDefault(p.playerId, new long[2]);
+                results.add(new StatsStore.Result(p.playerName, p.playerId.equals(winnerId),
+                    scores.getOrDefault(p.playerId, 0), (int) times[0], times[1]));
+            }
+            stats.record(results);
             broadcast("GAME_END|" + winner + "|" + maxScore);
             sendScores();
+            directory.update(this);
         }
 
         private String getPlayerName(String playerId) {
@@ -473,13 +1149,33 @@ public class ScribbleServer {
             if (parts.length > 1) drawTime = Integer.parseInt(parts[1]);
             if (parts.length > 2) maxPlayers = Integer.parseInt(parts[2]);
             if (parts.length > 3) {
-                String[] words = parts[3].split(";");
-                customWords.addAll(Arrays.asList(words));
+                for (String word : parts[3].split(";")) {
+                    word = word.trim();
+                    if (!word.isEmpty() && !customWords.contains(word)) customWords.add(word);
+                }
             }
-            broadcast("CONFIG_UPDATED|" + config);
+            if (parts.length > 4 && !parts[4].trim().equalsIgnoreCase(language)) {
+                WordDictionary requested = WordDictionary.forLanguage(parts[4].trim());
+                if (requested == null) {
+                    unicast(host, "ERROR|No words for language " + parts[4].trim());
+                } else {
+                    dictionary = requested;
+                    language = requested.language;
+                    // Deck positions belong to the old dictionary
+                    deck.reset();
+                }
+            }
+            broadcast("CONFIG_UPDATED|" + config, null, LEGACY);
+            publish("CONFIG|" + settings(), null);
+            directory.update(this);
         }
 
+        // Whole documents, for players that did not negotiate room-state
         void sendPlayerList() {
+            if (any(LEGACY)) broadcast(buildPlayerList(), null, LEGACY);
+        }
+
+        private String buildPlayerList() {
             StringBuilder list = new StringBuilder("PLAYER_LIST");
             for (ClientHandler p : players) {
                 list.append("|").append(p.playerId).append(",")
@@ -487,21 +1183,183 @@ public class ScribbleServer {
                     .append(p.avatarColor).append(",")
                     .append(p.avatarAccessory);
             }
-            broadcast(list.toString());
+            return list.toString();
         }
 
         void sendScores() {
+            if (any(LEGACY)) broadcast(buildScores(), null, LEGACY);
+        }
+
+        // Everything a room-state client shows about the room, at the
+        // current version; later changes arrive as deltas
+        void sendState(ClientHandler player) {
+            if (!player.roomState) {
+                unicast(player, buildPlayerList());
+                unicast(player, buildScores());
+                return;
+            }
+            StringBuilder state = new StringBuilder("STATE|").append(stateVersion)
+                .append('|').append(host.playerId).append('|').append(settings());
+            for (ClientHandler p : players) {
+                state.append('|').append(member(p));
+            }
+            unicast(player, state.toString());
+        }
+
+        // One change to the room state, under the next version
+        private void publish(String delta, ClientHandler exclude) {
+            stateVersion++;
+            broadcast("DELTA|" + stateVersion + "|" + delta, exclude, WANTS_STATE);
+        }
+
+        private String member(ClientHandler p) {
+            return RoomState.member(p.playerId, p.playerName, p.avatarColor, p.avatarAccessory,
+                scores.getOrDefault(p.playerId, 0));
+        }
+
+        private String settings() {
+            return rounds + "," + drawTime + "," + maxPlayers + "," + language;
+        }
+
+        private boolean any(Predicate<ClientHandler> audience) {
+            for (ClientHandler player : players) {
+                if (audience.test(player)) return true;
+            }
+            return false;
+        }
+
+        private String buildScores() {
             StringBuilder scoreList = new StringBuilder("SCORES");
             for (Map.Entry<String, Integer> entry : scores.entrySet()) {
                 scoreList.append("|").append(entry.getKey()).append(",").append(entry.getValue());
             }
-            broadcast(scoreList.toString());
+            return scoreList.toString();
         }
 
         void broadcast(String message) {
+            broadcast(message, null);
+        }
+
+        void broadcast(String message, ClientHandler exclude) {
+            broadcast(message, exclude, null);
+        }
+
+        // Encoded and numbered only if someone is to receive it
+        void broadcast(String message, ClientHandler exclude, Predicate<ClientHandler> audience) {
+            long started = System.nanoTime();
+            Packet packet = null;
+            Packet sequenced = null;
+            int recipients = 0;
+            for (ClientHandler player : players) {
+                if (player == exclude || (audience != null && !audience.test(player))) continue;
+                if (packet == null) {
+                    packet = Packet.of(message);
+                    sequenced = sequence(packet, null, exclude, audience);
+                }
+                player.deliver(player.resumable ? sequenced : packet);
+                recipients++;
+            }
+            Metrics.broadcast(recipients, packet != null ? (long) recipients * packet.bytes.length : 0,
+                System.nanoTime() - started);
+        }
+
+        void unicast(ClientHandler player, String message) {
+            Packet packet = Packet.of(message);
+            player.deliver(player.resumable ? sequence(packet, player, null, null) : packet);
+        }
+
+        // Control messages get the next room sequence number and go into the
+        // replay ring; TIMER and HINT are superseded by the next one anyway
+        private Packet sequence(Packet packet, ClientHandler only, ClientHandler except,
+                                Predicate<ClientHandler> audience) {
+            if (packet.kind != Packet.CONTROL || !hasResumable()) return packet;
+            Packet sequenced = Packet.of("@" + (++sequence) + "|" + packet.text);
+            replay.add(sequence, sequenced, only != null ? only.session : null, except != null ? except.session : null,
+                audience);
+            return sequenced;
+        }
+
+        private boolean hasResumable() {
+            for (ClientHandler player : players) {
+                if (player.session != null) return true;
+            }
+            return false;
+        }
+
+        // Encoded once by the caller; each recipient only queues a reference
+        void broadcast(Packet packet, Predicate<ClientHandler> audience) {
+            long started = System.nanoTime();
+            int recipients = 0;
+            for (ClientHandler player : players) {
+                if (audience == null || audience.test(player)) {
+                    player.deliver(packet);
+                    recipients++;
+                }
+            }
+            Metrics.broadcast(recipients, (long) recipients * packet.bytes.length, System.nanoTime() - started);
+        }
+
+        // During a game only the drawer can wipe the shared canvas
+        void clearCanvas(ClientHandler sender) {
+            if (gameActive && !isDrawer(sender)) return;
+            wipeCanvas();
+            broadcast("CLEAR", sender);
+        }
+
+        boolean isDrawer(ClientHandler player) {
+            int index = currentPlayerIndex;
+            return gameActive && index < players.size() && players.get(index) == player;
+        }
+
+        // Each wire format is encoded at most once per message, together with
+        // a downsampled variant used only for clients that are lagging
+        void broadcastStroke(String binaryMessage, StrokeCodec.Segments segments, ClientHandler sender) {
+            long started = System.nanoTime();
+            strokeLog.append(segments);
+            if (segments.size() > 0) rasterLane.execute(() -> raster.apply(segments));
+            Packet binary = null;
+            Packet batch = null;
+            Packet lines = null;
+            int recipients = 0;
+            long bytes = 0;
             for (ClientHandler player : players) {
-                player.sendMessage(message);
+                if (player == sender) {
+                    continue;
+                } else if (player.binaryStrokes) {
+                    if (binary == null) {
+                        String message = binaryMessage != null ? binaryMessage : strokeMessage(segments, false);
+                        binary = Packet.stroke(message, () -> Packet.of(strokeMessage(segments, true)));
+                    }
+                    player.deliver(binary);
+                    bytes += binary.bytes.length;
+                } else if (segments.size() == 0) {
+                    continue;
+                } else if (player.drawBatches) {
+                    if (batch == null) {
+                        batch = Packet.stroke("DRAW_BATCH|" + segments.toText(false),
+                            () -> Packet.of("DRAW_BATCH|" + segments.toText(true)));
+                    }
+                    player.deliver(batch);
+                    bytes += batch.bytes.length;
+                } else {
+                    if (lines == null) {
+                        lines = Packet.stroke(drawLines(segments.toText(false)),
+                            () -> Packet.of(drawLines(segments.toText(true))));
+                    }
+                    player.deliver(lines);
+                    bytes += lines.bytes.length;
+                }
+                recipients++;
             }
+            Metrics.broadcast(recipients, bytes, System.nanoTime() - started);
+        }
+
+        private static String strokeMessage(StrokeCodec.Segments segments, boolean decimated) {
+            return "STROKE|" + Base64.getEncoder().encodeToString(segments.encodeSelfContained(decimated));
+        }
+
+        private static String drawLines(String segments) {
+            return "DRAW|" + segments.replace(";", "\nDRAW|");
         }
     }
 }
\ No newline at end of file
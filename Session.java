@@ -0,0 +1,39 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A player's seat in a room, which outlives the connection that took it.
+// The token is handed out with SESSION| on joining; a client that reconnects
+// within the grace window sends RESUME|token|lastSeq and takes the seat
+// over, keeping its player id, score and turn.
+final class Session {
+    static final String CAPABILITY = "resume";
+    static volatile long graceMillis = 30000;
+
+    private static final Map<String, Session> byToken = new ConcurrentHashMap<>();
+    private static final SecureRandom random = new SecureRandom();
+
+    final String token;
+    // The connection currently holding the seat; swapped on the room's loop
+    volatile ScribbleServer.ClientHandler handler;
+    // Pending removal while the player is away; room loop only
+    ScribbleServer.Cancellable expiry;
+
+    Session(ScribbleServer.ClientHandler handler) {
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        this.token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        this.handler = handler;
+        byToken.put(token, this);
+    }
+
+    static Session find(String token) {
+        return byToken.get(token);
+    }
+
+    void close() {
+        byToken.remove(token);
+        if (expiry != null) expiry.cancel();
+    }
+}
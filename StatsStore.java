@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Lifetime player statistics, kept across restarts in one append-only file.
+// Each finished game appends a line per player:
+//
+//   name \t games \t wins \t points \t guesses \t guessMillis
+//
+// and loading simply adds the lines up, so compaction is rewriting the file
+// with one summed line per player and moving it over the old one. Players
+// are known by name, case-insensitively; ids only last a connection.
+//
+// Everything runs on one writer thread, fed from endGame, so rooms never
+// wait on the disk. The ranking is a tree kept sorted as totals change, and
+// the top of it is re-encoded once per game into a ready LEADERBOARD packet.
+final class StatsStore {
+    static final int TOP = 10;
+    // Appended lines allowed beyond one per player before compacting early
+    private static final int COMPACT_AFTER = 1000;
+    private static final long COMPACT_EVERY_MILLIS = 10 * 60 * 1000;
+
+    static final class Stats {
+        String name;
+        long games;
+        long wins;
+        long points;
+        long guesses;
+        long guessMillis;
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        long averageGuessMillis() {
+            return guesses == 0 ? 0 : guessMillis / guesses;
+        }
+    }
+
+    // One player's part in one finished game
+    static final class Result {
+        final String name;
+        final boolean won;
+        final int points;
+        final int guesses;
+        final long guessMillis;
+
+        Result(String name, boolean won, int points, int guesses, long guessMillis) {
+            this.name = name;
+            this.won = won;
+            this.points = points;
+            this.guesses = guesses;
+            this.guessMillis = guessMillis;
+        }
+    }
+
+    private static final Comparator<Stats> RANKING = Comparator.<Stats>comparingLong(s -> -s.points)
+        .thenComparingLong(s -> -s.wins)
+        .thenComparing(s -> key(s.name));
+
+    private final Path file;
+    // Writer thread only
+    private final Map<String, Stats> byName = new HashMap<>();
+    private final TreeSet<Stats> ranking = new TreeSet<>(RANKING);
+    private Writer log;
+    private int lines;
+    private int appendedSinceCompaction;
+    private volatile Packet leaderboard = Packet.of("LEADERBOARD");
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "stats-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private StatsStore(Path file) {
+        this.file = file;
+    }
+
+    static StatsStore open(Path file) {
+        StatsStore store = new StatsStore(file);
+        store.writer.execute(store::load);
+        store.scheduleCompaction();
+        return store;
+    }
+
+    private void load() {
+        try {
+            if (Files.exists(file)) {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    String[] fields = line.split("\t");
+                    // A line cut short by a crash is skipped
+                    if (fields.length != 6) continue;
+                    try {
+                        add(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                            Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+                        lines++;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            System.out.println("Stats: " + byName.size() + " players from " + file);
+            if (lines > byName.size() + COMPACT_AFTER) {
+                compact();
+            } else {
+                openLog();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        publishLeaderboard();
+    }
+
+    private void openLog() throws IOException {
+        log = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // Called from the room's loop; the results are written later
+    void record(List<Result> results) {
+        writer.execute(() -> {
+            try {
+                for (Result result : results) {
+                    String name = clean(result.name);
+                    add(name, 1, result.won ? 1 : 0, result.points, result.guesses, result.guessMillis);
+                    if (log != null) {
+                        log.write(name + "\t1\t" + (result.won ? 1 : 0) + "\t" + result.points + "\t"
+                            + result.guesses + "\t" + result.guessMillis + "\n");
+                        lines++;
+                        appendedSinceCompaction++;
+                    }
+                }
+                if (log != null) log.flush();
+                if (lines > byName.size() + COMPACT_AFTER) compact();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            publishLeaderboard();
+        });
+    }
+
+    // Taken out of the ranking while its totals change, so the tree stays
+    // ordered: O(log n) per update
+    private void add(String name, long games, long wins, long points, long guesses, long guessMillis) {
+        String key = key(name);
+        Stats stats = byName.get(key);
+        if (stats == null) {
+            stats = new Stats(name);
+            byName.put(key, stats);
+        } else {
+            ranking.remove(stats);
+        }
+        stats.name = name;
+        stats.games += games;
+        stats.wins += wins;
+        stats.points += points;
+        stats.guesses += guesses;
+        stats.guessMillis += guessMillis;
+        ranking.add(stats);
+    }
+
+    private void publishLeaderboard() {
+        StringBuilder board = new StringBuilder("LEADERBOARD");
+        Iterator<Stats> top = ranking.iterator();
+        for (int i = 0; i < TOP && top.hasNext(); i++) {
+            board.append('|').append(encode(top.next()));
+        }
+        leaderboard = Packet.of(board.toString());
+    }
+
+    Packet leaderboard() {
+        return leaderboard;
+    }
+
+    // STATS|name,games,wins,points,averageGuessMillis; answered from the
+    // writer thread, after anything already queued
+    void sendStats(ScribbleServer.ClientHandler client, String name) {
+        writer.execute(() -> {
+            Stats stats = byName.get(key(clean(name)));
+            client.sendMessage("STATS|" + (stats != null ? encode(stats) : clean(name) + ",0,0,0,0"));
+        });
+    }
+
+    private static String encode(Stats stats) {
+        return stats.name + "," + stats.games + "," + stats.wins + "," + stats.points + "," + stats.averageGuessMillis();
+    }
+
+    private void scheduleCompaction() {
+        ScribbleServer.timers.schedule(COMPACT_EVERY_MILLIS, () -> writer.execute(() -> {
+            if (appendedSinceCompaction > 0) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            scheduleCompaction();
+        }));
+    }
+
+    // One line per player, written aside and moved over the log
+    private void compact() throws IOException {
+        Path partial = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+            for (Stats stats : byName.values()) {
+                out.write(stats.name + "\t" + stats.games + "\t" + stats.wins + "\t" + stats.points + "\t"
+                    + stats.guesses + "\t" + stats.guessMillis + "\n");
+            }
+        }
+        if (log != null) log.close();
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lines = byName.size();
+        appendedSinceCompaction = 0;
+        openLog();
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    // Names end up in tab- and comma-separated records
+    private static String clean(String name) {
+        return name == null ? "" : name.replaceAll("[\\t\\r\\n,|]", " ").trim();
+    }
+}
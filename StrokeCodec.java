@@ -0,0 +1,296 @@
+import java.util.Arrays;
+
+// Compact stroke stream shared by client and server. A stroke opens with a
+// BEGIN record carrying colour, brush size and the absolute pen position;
+// every following point is a zig-zag varint delta from the previous one.
+// On the text protocol the bytes travel Base64-encoded as STROKE|<data>.
+final class StrokeCodec {
+    static final String CAPABILITY = "stroke-bin";
+    // Text fallback: all segments of one frame as DRAW_BATCH|seg;seg;...
+    static final String BATCH_CAPABILITY = "draw-batch";
+    static final int BEGIN = 1;
+    static final int POINTS = 2;
+    // Strokes land in a room's shared log and raster, so only points on the
+    // 800x600 canvas and brushes up to this size are accepted
+    static final int MAX_SIZE = 63;
+
+    private StrokeCodec() {
+    }
+
+    static boolean onCanvas(int x, int y) {
+        return x >= 0 && x < CanvasRaster.WIDTH && y >= 0 && y < CanvasRaster.HEIGHT;
+    }
+
+    static boolean validSize(int size) {
+        return size >= 0 && size <= MAX_SIZE;
+    }
+
+    interface SegmentSink {
+        void segment(int x1, int y1, int x2, int y2, int rgb, int size);
+    }
+
+    static final class Encoder {
+        private byte[] out = new byte[64];
+        private int length;
+        private int[] deltas = new int[32];
+        private int deltaCount;
+        private int lastX, lastY;
+
+        void begin(int rgb, int size, int x, int y) {
+            flushPoints();
+            // Tag, RGB, and size, x and y as varints of up to 5 bytes each
+            ensure(19);
+            out[length++] = BEGIN;
+            out[length++] = (byte) (rgb >> 16);
+            out[length++] = (byte) (rgb >> 8);
+            out[length++] = (byte) rgb;
+            writeVarint(size);
+            writeVarint(zigZag(x));
+            writeVarint(zigZag(y));
+            lastX = x;
+            lastY = y;
+        }
+
+        void lineTo(int x, int y) {
+            if (deltaCount + 2 > deltas.length) deltas = Arrays.copyOf(deltas, deltas.length * 2);
+            deltas[deltaCount++] = x - lastX;
+            deltas[deltaCount++] = y - lastY;
+            lastX = x;
+            lastY = y;
+        }
+
+        boolean isEmpty() {
+            return length == 0 && deltaCount == 0;
+        }
+
+        // Returns everything recorded since the previous drain
+        byte[] drain() {
+            flushPoints();
+            byte[] data = Arrays.copyOf(out, length);
+            length = 0;
+            return data;
+        }
+
+        // Everything recorded so far, without resetting the encoder
+        byte[] snapshot() {
+            flushPoints();
+            return Arrays.copyOf(out, length);
+        }
+
+        void reset() {
+            length = 0;
+            deltaCount = 0;
+        }
+
+        int capacity() {
+            return out.length;
+        }
+
+        private void flushPoints() {
+            if (deltaCount == 0) return;
+            ensure(6 + deltaCount * 5);
+            out[length++] = POINTS;
+            writeVarint(deltaCount / 2);
+            for (int i = 0; i < deltaCount; i++) {
+                writeVarint(zigZag(deltas[i]));
+            }
+            deltaCount = 0;
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                out[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out[length++] = (byte) value;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > out.length) out = Arrays.copyOf(out, Math.max(out.length * 2, length + extra));
+        }
+    }
+
+    // Keeps the pen state between messages; points that arrive before any
+    // BEGIN (e.g. after joining mid-stroke) are skipped.
+    static final class Decoder {
+        private boolean penDown;
+        private int x, y, rgb, size;
+        private int position;
+
+        void decode(byte[] data, SegmentSink sink) {
+            position = 0;
+            while (position < data.length) {
+                int op = data[position++];
+                if (op == BEGIN) {
+                    if (position + 3 > data.length) throw malformed();
+                    rgb = ((data[position] & 0xFF) << 16) | ((data[position + 1] & 0xFF) << 8) | (data[position + 2] & 0xFF);
+                    position += 3;
+                    size = readVarint(data);
+                    x = unZigZag(readVarint(data));
+                    y = unZigZag(readVarint(data));
+                    if (!validSize(size) || !onCanvas(x, y)) throw malformed();
+                    penDown = true;
+                } else if (op == POINTS) {
+                    int count = readVarint(data);
+                    for (int i = 0; i < count; i++) {
+                        int nx = x + unZigZag(readVarint(data));
+                        int ny = y + unZigZag(readVarint(data));
+                        if (penDown && !onCanvas(nx, ny)) throw malformed();
+                        if (penDown) sink.segment(x, y, nx, ny, rgb, size);
+                        x = nx;
+                        y = ny;
+                    }
+                } else {
+                    throw malformed();
+                }
+            }
+        }
+
+        // Picks up where another decoder's pen is, for a stroke that carries
+        // on over a new connection
+        void continueFrom(Decoder other) {
+            penDown = other.penDown;
+            x = other.x;
+            y = other.y;
+            rgb = other.rgb;
+            size = other.size;
+        }
+
+        private int readVarint(byte[] data) {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (position >= data.length) throw malformed();
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw malformed();
+        }
+    }
+
+    // Decoded segments of one message, six ints each: x1, y1, x2, y2, rgb, size
+    static final class Segments implements SegmentSink {
+        private int[] data = new int[6 * 16];
+        private int count;
+
+        @Override
+        public void segment(int x1, int y1, int x2, int y2, int rgb, int size) {
+            if ((count + 1) * 6 > data.length) data = Arrays.copyOf(data, data.length * 2);
+            int i = count * 6;
+            data[i] = x1;
+            data[i + 1] = y1;
+            data[i + 2] = x2;
+            data[i + 3] = y2;
+            data[i + 4] = rgb;
+            data[i + 5] = size;
+            count++;
+        }
+
+        int size() {
+            return count;
+        }
+
+        void clear() {
+            count = 0;
+        }
+
+        void forEach(SegmentSink sink) {
+            for (int i = 0; i < count * 6; i += 6) {
+                sink.segment(data[i], data[i + 1], data[i + 2], data[i + 3], data[i + 4], data[i + 5]);
+            }
+        }
+
+        // Parses "x1,y1,x2,y2,r,g,b,size" segments separated by ';' without
+        // splitting; returns false on malformed input
+        boolean parseText(String text) {
+            int[] fields = new int[8];
+            int field = 0, value = 0, digits = 0;
+            boolean negative = false;
+            for (int i = 0; i <= text.length(); i++) {
+                char c = i < text.length() ? text.charAt(i) : ';';
+                if (c >= '0' && c <= '9') {
+                    value = value * 10 + (c - '0');
+                    if (++digits > 9) return false;
+                } else if (c == '-' && digits == 0 && !negative) {
+                    negative = true;
+                } else if (c == ',' || c == ';') {
+                    if (digits == 0 || field == 8) return false;
+                    fields[field++] = negative ? -value : value;
+                    value = 0;
+                    digits = 0;
+                    negative = false;
+                    if (c == ';') {
+                        if (field != 8) return false;
+                        if (!onCanvas(fields[0], fields[1]) || !onCanvas(fields[2], fields[3])
+                            || !validSize(fields[7])) {
+                            return false;
+                        }
+                        int rgb = ((fields[4] & 0xFF) << 16) | ((fields[5] & 0xFF) << 8) | (fields[6] & 0xFF);
+                        segment(fields[0], fields[1], fields[2], fields[3], rgb, fields[7]);
+                        field = 0;
+                    }
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String toText(boolean decimated) {
+            StringBuilder text = new StringBuilder(count * 24);
+            for (int s = 0; s < count; s++) {
+                int i = s * 6;
+                int end = i;
+                // Merge a pair only when it is one continuous, same-style line
+                if (decimated && s + 1 < count && continues(i, i + 6)) {
+                    end = i + 6;
+                    s++;
+                }
+                if (text.length() > 0) text.append(';');
+                text.append(data[i]).append(',').append(data[i + 1]).append(',')
+                    .append(data[end + 2]).append(',').append(data[end + 3]).append(',')
+                    .append((data[i + 4] >> 16) & 0xFF).append(',').append((data[i + 4] >> 8) & 0xFF).append(',')
+                    .append(data[i + 4] & 0xFF).append(',').append(data[i + 5]);
+            }
+            return text.toString();
+        }
+
+        // Self-contained stroke data: every run restates its style and start
+        // point, so a client that missed earlier messages still draws it in
+        // the right place. Decimation keeps every other point of a run.
+        byte[] encodeSelfContained(boolean decimated) {
+            Encoder encoder = new Encoder();
+            int runPoints = 0;
+            for (int s = 0; s < count; s++) {
+                int i = s * 6;
+                boolean last = s + 1 == count || !continues(i, i + 6);
+                if (s == 0 || !continues(i - 6, i)) {
+                    encoder.begin(data[i + 4], data[i + 5], data[i], data[i + 1]);
+                    runPoints = 0;
+                }
+                runPoints++;
+                if (!decimated || last || runPoints % 2 == 0) {
+                    encoder.lineTo(data[i + 2], data[i + 3]);
+                }
+            }
+            return encoder.drain();
+        }
+
+        private boolean continues(int previous, int next) {
+            return data[previous + 2] == data[next] && data[previous + 3] == data[next + 1]
+                && data[previous + 4] == data[next + 4] && data[previous + 5] == data[next + 5];
+        }
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static IllegalArgumentException malformed() {
+        return new IllegalArgumentException("Malformed stroke data");
+    }
+}
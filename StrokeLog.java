@@ -0,0 +1,80 @@
+import java.util.Base64;
+
+// The current drawing of one room, kept in the same delta-encoded form as
+// STROKE messages: a few bytes per point instead of an object per segment.
+// Late joiners get the whole log as one catch-up message. Only touched on
+// the room's event loop.
+final class StrokeLog {
+    // A cleared log keeps its buffer unless a long round grew it past this
+    private static final int RETAIN_BYTES = 64 * 1024;
+
+    private StrokeCodec.Encoder encoder = new StrokeCodec.Encoder();
+    private final StrokeCodec.SegmentSink appender = this::segment;
+    private boolean penDown;
+    private int lastX, lastY, lastRgb, lastSize;
+    private int segmentCount;
+    // Catch-up messages per wire format, rebuilt only after the log changes
+    private Packet binary, batch, lines;
+
+    void append(StrokeCodec.Segments segments) {
+        if (segments.size() == 0) return;
+        segments.forEach(appender);
+        binary = batch = lines = null;
+    }
+
+    private void segment(int x1, int y1, int x2, int y2, int rgb, int size) {
+        if (!penDown || x1 != lastX || y1 != lastY || rgb != lastRgb || size != lastSize) {
+            encoder.begin(rgb, size, x1, y1);
+            penDown = true;
+            lastRgb = rgb;
+            lastSize = size;
+        }
+        encoder.lineTo(x2, y2);
+        lastX = x2;
+        lastY = y2;
+        segmentCount++;
+    }
+
+    boolean isEmpty() {
+        return segmentCount == 0;
+    }
+
+    int segmentCount() {
+        return segmentCount;
+    }
+
+    void clear() {
+        if (encoder.capacity() > RETAIN_BYTES) {
+            encoder = new StrokeCodec.Encoder();
+        } else {
+            encoder.reset();
+        }
+        penDown = false;
+        segmentCount = 0;
+        binary = batch = lines = null;
+    }
+
+    // The whole drawing as one line in the client's format. It ends where
+    // the pen currently is, so a binary client can decode the drawer's next
+    // continuation message straight after it.
+    Packet catchUp(boolean binaryStrokes, boolean drawBatches) {
+        if (binaryStrokes) {
+            if (binary == null) {
+                binary = Packet.of("STROKE|" + Base64.getEncoder().encodeToString(encoder.snapshot()));
+            }
+            return binary;
+        }
+        if (drawBatches) {
+            if (batch == null) batch = Packet.of("DRAW_BATCH|" + segments().toText(false));
+            return batch;
+        }
+        if (lines == null) lines = Packet.of("DRAW|" + segments().toText(false).replace(";", "\nDRAW|"));
+        return lines;
+    }
+
+    private StrokeCodec.Segments segments() {
+        StrokeCodec.Segments segments = new StrokeCodec.Segments();
+        new StrokeCodec.Decoder().decode(encoder.snapshot(), segments);
+        return segments;
+    }
+}
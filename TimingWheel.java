@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Hashed timing wheel shared by every room. Scheduling and cancelling are
+// O(1) list splices under one short lock; a single worker thread advances
+// the wheel and runs expired callbacks, which should only hand work off
+// (rooms post to their event loop). Each room owns a Group so destroying
+// the room cancels everything it still has pending.
+final class TimingWheel {
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+    private final Object lock = new Object();
+    // Guarded by lock
+    private long currentTick;
+    private int live;
+
+    TimingWheel(long tickMillis, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) throw new IllegalArgumentException("wheelSize must be a power of two");
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+        Thread worker = new Thread(this::run, "timing-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    Group newGroup() {
+        return new Group();
+    }
+
+    ScribbleServer.Cancellable schedule(long delayMillis, Runnable task) {
+        return schedule(delayMillis, task, null);
+    }
+
+    int liveCount() {
+        synchronized (lock) {
+            return live;
+        }
+    }
+
+    private Timeout schedule(long delayMillis, Runnable task, Group group) {
+        Timeout timeout = new Timeout(task, group);
+        long due = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        long deadline = (due + tickNanos - 1) / tickNanos;
+        synchronized (lock) {
+            if (group != null && group.closed) {
+                timeout.state = Timeout.CANCELLED;
+                return timeout;
+            }
+            timeout.deadline = Math.max(deadline, currentTick + 1);
+            int slot = (int) (timeout.deadline & mask);
+            timeout.next = buckets[slot];
+            if (timeout.next != null) timeout.next.prev = timeout;
+            buckets[slot] = timeout;
+            if (group != null) group.link(timeout);
+            live++;
+        }
+        return timeout;
+    }
+
+    private void run() {
+        List<Runnable> expired = new ArrayList<>();
+        long tick = 0;
+        while (true) {
+            long sleep = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            tick++;
+            synchronized (lock) {
+                currentTick = tick;
+                int slot = (int) (tick & mask);
+                Timeout timeout = buckets[slot];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    // Later rounds of the wheel share the bucket; they stay put
+                    if (timeout.deadline <= tick) {
+                        timeout.unlink();
+                        timeout.state = Timeout.EXPIRED;
+                        expired.add(timeout.task);
+                    }
+                    timeout = next;
+                }
+            }
+            for (Runnable task : expired) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    final class Group {
+        private Timeout head;
+        private boolean closed;
+
+        ScribbleServer.Cancellable schedule(long delayMillis, Runnable task) {
+            return TimingWheel.this.schedule(delayMillis, task, this);
+        }
+
+        // Cancels every pending callback and refuses new ones
+        void cancelAll() {
+            synchronized (lock) {
+                closed = true;
+                while (head != null) {
+                    head.state = Timeout.CANCELLED;
+                    head.unlink();
+                }
+            }
+        }
+
+        private void link(Timeout timeout) {
+            timeout.groupNext = head;
+            if (head != null) head.groupPrev = timeout;
+            head = timeout;
+        }
+    }
+
+    private final class Timeout implements ScribbleServer.Cancellable {
+        static final int PENDING = 0, EXPIRED = 1, CANCELLED = 2;
+        final Runnable task;
+        final Group group;
+        long deadline;
+        int state = PENDING;
+        Timeout prev, next, groupPrev, groupNext;
+
+        Timeout(Runnable task, Group group) {
+            this.task = task;
+            this.group = group;
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (lock) {
+                if (state != PENDING) return;
+                state = CANCELLED;
+                unlink();
+            }
+        }
+
+        // Caller holds lock
+        void unlink() {
+            int slot = (int) (deadline & mask);
+            if (prev != null) prev.next = next;
+            else if (buckets[slot] == this) buckets[slot] = next;
+            if (next != null) next.prev = prev;
+            prev = next = null;
+            if (group != null) {
+                if (groupPrev != null) groupPrev.groupNext = groupNext;
+                else if (group.head == this) group.head = groupNext;
+                if (groupNext != null) groupNext.groupPrev = groupPrev;
+                groupPrev = groupNext = null;
+            }
+            live--;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// Virtual threads are looked up reflectively so the sources still build and
+// run on JDKs older than 21; callers check supported() before enabling them.
+final class VirtualThreads {
+    private static final MethodHandle START_VIRTUAL_THREAD = lookupStart();
+    static volatile boolean enabled = false;
+
+    private VirtualThreads() {
+    }
+
+    private static MethodHandle lookupStart() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Thread.class, "startVirtualThread",
+                MethodType.methodType(Thread.class, Runnable.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    static boolean supported() {
+        return START_VIRTUAL_THREAD != null;
+    }
+
+    static Thread start(Runnable task) {
+        try {
+            return (Thread) START_VIRTUAL_THREAD.invoke(task);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Shared, read-only word lists, one per language. words/<lang>.txt (one word
+// per line, # comments) is compiled on first use into <lang>.idx next to it:
+//
+//   int magic, int count, int[count + 1] offsets, UTF-8 bytes
+//
+// and the index is memory-mapped, so every room reads the same pages and a
+// word is found by position without a scan. The index is rebuilt whenever
+// the text file is newer. English falls back to a small built-in list.
+final class WordDictionary {
+    private static final int MAGIC = 0x53574431; // "SWD1"
+    private static final List<String> BUILT_IN = Arrays.asList(
+        "cat", "dog", "house", "tree", "car", "sun", "moon", "star",
+        "computer", "phone", "book", "chair", "table", "window", "door",
+        "apple", "banana", "pizza", "coffee", "airplane", "bicycle",
+        "guitar", "piano", "flower", "mountain", "ocean", "river",
+        "elephant", "giraffe", "penguin", "butterfly", "robot", "castle",
+        "rainbow", "umbrella", "glasses", "camera", "rocket", "astronaut"
+    );
+    static final String DEFAULT_LANGUAGE = "EN";
+    static Path directory = Paths.get("words");
+    private static final ConcurrentHashMap<String, WordDictionary> loaded = new ConcurrentHashMap<>();
+
+    final String language;
+    // Only absolute reads, so one buffer serves every thread
+    private final ByteBuffer index;
+    private final int count;
+    private final int dataStart;
+
+    private WordDictionary(String language, ByteBuffer index) throws IOException {
+        if (index.limit() < 8 || index.getInt(0) != MAGIC) throw new IOException("Not a word index");
+        int count = index.getInt(4);
+        int dataStart = 8 + 4 * (count + 1);
+        if (count < 0 || dataStart > index.limit() || dataStart + index.getInt(8 + 4 * count) > index.limit()) {
+            throw new IOException("Truncated word index");
+        }
+        this.language = language;
+        this.index = index;
+        this.count = count;
+        this.dataStart = dataStart;
+    }
+
+    // Loads a language the first time it is asked for; null if there is no
+    // word list for it
+    static WordDictionary forLanguage(String language) {
+        if (language == null || !language.matches("[A-Za-z_-]{1,16}")) return null;
+        String key = language.toUpperCase(Locale.ROOT);
+        WordDictionary dictionary = loaded.get(key);
+        if (dictionary != null) return dictionary;
+        return loaded.computeIfAbsent(key, WordDictionary::load);
+    }
+
+    private static WordDictionary load(String language) {
+        String name = language.toLowerCase(Locale.ROOT);
+        Path text = directory.resolve(name + ".txt");
+        Path compiled = directory.resolve(name + ".idx");
+        try {
+            if (Files.isRegularFile(text)) {
+                if (!Files.isRegularFile(compiled)
+                        || Files.getLastModifiedTime(compiled).compareTo(Files.getLastModifiedTime(text)) < 0) {
+                    compile(text, compiled);
+                }
+                try (FileChannel channel = FileChannel.open(compiled, StandardOpenOption.READ)) {
+                    WordDictionary dictionary = new WordDictionary(language,
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                    System.out.println("Words: " + dictionary.size() + " for " + language);
+                    return dictionary;
+                }
+            }
+            if (language.equals(DEFAULT_LANGUAGE)) {
+                return new WordDictionary(language, ByteBuffer.wrap(encode(BUILT_IN)));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private static void compile(Path text, Path compiled) throws IOException {
+        Set<String> words = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(text, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) words.add(line);
+        }
+        // Written aside and moved into place, so a reader never maps half a file
+        Path partial = compiled.resolveSibling(compiled.getFileName() + ".tmp");
+        Files.write(partial, encode(new ArrayList<>(words)));
+        Files.move(partial, compiled, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] encode(List<String> words) throws IOException {
+        byte[][] encoded = new byte[words.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = words.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(encoded.length);
+        int offset = 0;
+        out.writeInt(offset);
+        for (byte[] word : encoded) {
+            offset += word.length;
+            out.writeInt(offset);
+        }
+        for (byte[] word : encoded) {
+            out.write(word);
+        }
+        return bytes.toByteArray();
+    }
+
+    int size() {
+        return count;
+    }
+
+    String word(int i) {
+        int start = index.getInt(8 + 4 * i);
+        int end = index.getInt(12 + 4 * i);
+        byte[] bytes = new byte[end - start];
+        for (int b = 0; b < bytes.length; b++) {
+            bytes[b] = index.get(dataStart + start + b);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A room's draws over its dictionary followed by its custom words. Each
+    // word is offered at most once until every word has been, then the
+    // deck starts over. The bitset is the only per-room state.
+    static final class Deck {
+        private final BitSet used = new BitSet();
+        private int usedCount;
+
+        String draw(WordDictionary dictionary, List<String> customWords, Random random) {
+            int total = dictionary.size() + customWords.size();
+            if (total == 0) return null;
+            if (usedCount >= total) reset();
+            int i = -1;
+            // Random probes are almost always enough; a mostly used deck
+            // falls back to the next unused word after a random start
+            for (int probe = 0; probe < 8; probe++) {
+                int candidate = random.nextInt(total);
+                if (!used.get(candidate)) {
+                    i = candidate;
+                    break;
+                }
+            }
+            if (i < 0) {
+                i = used.nextClearBit(random.nextInt(total));
+                if (i >= total) i = used.nextClearBit(0);
+            }
+            used.set(i);
+            usedCount++;
+            return i < dictionary.size() ? dictionary.word(i) : customWords.get(i - dictionary.size());
+        }
+
+        void reset() {
+            used.clear();
+            usedCount = 0;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import java.net.Socket;
+import java.util.function.IntSupplier;
+
+// A room with the given number of players, none resumable, broadcasting a
+// chat line; each recipient's queue is drained as its writer would
+public final class BroadcastFixture implements IntSupplier {
+    private final ScribbleServer.GameRoom room;
+
+    public BroadcastFixture(String players) {
+        ScribbleServer.ClientHandler host = new ScribbleServer.ClientHandler((Socket) null);
+        room = new ScribbleServer.GameRoom("BNCH", host, new String[] {"true"});
+        room.players.add(host);
+        for (int i = 1; i < Integer.parseInt(players); i++) {
+            room.players.add(new ScribbleServer.ClientHandler((Socket) null));
+        }
+    }
+
+    @Override
+    public int getAsInt() {
+        room.broadcast("CHAT|Player-1234|is it a giraffe?");
+        int drained = 0;
+        for (ScribbleServer.ClientHandler player : room.players) {
+            drained += drain(player);
+        }
+        return drained;
+    }
+
+    static int drain(ScribbleServer.ClientHandler client) {
+        int bytes = 0;
+        byte[] line;
+        while ((line = client.outbound.poll()) != null) {
+            bytes += line.length;
+        }
+        return bytes;
+    }
+}
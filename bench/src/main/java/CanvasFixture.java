@@ -0,0 +1,48 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+// The client's canvas without a window. "parse:N" feeds it N DRAW segments
+// and starts over; "paint:N" paints a canvas holding N segments into an
+// 800x600 image.
+public final class CanvasFixture implements IntSupplier {
+    private final ScribbleClient.DrawingCanvas canvas = new ScribbleClient.DrawingCanvas(null);
+    private final String[] segments;
+    private final boolean paint;
+    private final BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+
+    public CanvasFixture(String spec) {
+        String[] parts = spec.split(":");
+        paint = parts[0].equals("paint");
+        segments = new String[Integer.parseInt(parts[1])];
+        // A random walk, like a hand drawing: short segments, few colors
+        Random random = new Random(42);
+        int x = 400, y = 300;
+        for (int i = 0; i < segments.length; i++) {
+            int nx = Math.max(0, Math.min(799, x + random.nextInt(21) - 10));
+            int ny = Math.max(0, Math.min(599, y + random.nextInt(21) - 10));
+            int color = (i / 500) % 3 == 0 ? 0 : 200;
+            segments[i] = x + "," + y + "," + nx + "," + ny + "," + color + ",0," + color + "," + (3 + i / 1000 % 3 * 4);
+            x = nx;
+            y = ny;
+        }
+        canvas.setSize(800, 600);
+        if (paint) {
+            for (String segment : segments) canvas.drawFromNetwork(segment);
+        }
+    }
+
+    @Override
+    public int getAsInt() {
+        if (paint) {
+            Graphics2D g = image.createGraphics();
+            canvas.paintComponent(g);
+            g.dispose();
+            return image.getRGB(400, 300);
+        }
+        canvas.clear();
+        for (String segment : segments) canvas.drawFromNetwork(segment);
+        return segments.length;
+    }
+}
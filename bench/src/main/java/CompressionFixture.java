@@ -0,0 +1,84 @@
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+// One connection's deflate stream fed the server's output for a kind of
+// traffic, "draw", "batch", "chat" or "mixed", at a compression level, as
+// "kind:level:lines". Each call writes the next few lines and sync-flushes,
+// as a writer does whenever its queue runs dry, and returns the plain bytes
+// in the high half and the compressed bytes in the low half.
+public final class CompressionFixture implements LongSupplier {
+    private static final String[] GUESSES = {
+        "is it a cat", "dog?", "house", "a tree", "giraffe", "no idea", "haha", "sun", "car", "boat",
+        "mountain", "is that a fish", "pizza", "lol", "banana", "rocket", "umbrella", "snake", "ok", "guitar"
+    };
+
+    private final LineCompression.Encoder encoder;
+    private final byte[][] traffic = new byte[4096][];
+    private final int linesPerFlush;
+    private int next;
+
+    public CompressionFixture(String spec) {
+        String[] parts = spec.split(":");
+        LineCompression.level = Integer.parseInt(parts[1]);
+        encoder = new LineCompression.Encoder();
+        linesPerFlush = Integer.parseInt(parts[2]);
+        Random random = new Random(42);
+        Walk walk = new Walk(random);
+        for (int i = 0; i < traffic.length; i++) {
+            String line;
+            switch (parts[0]) {
+                case "draw":
+                    line = "DRAW|" + walk.segment(i);
+                    break;
+                case "batch":
+                    line = "DRAW_BATCH|" + walk.segment(i) + ";" + walk.segment(i) + ";" + walk.segment(i);
+                    break;
+                case "chat":
+                    line = chat(random);
+                    break;
+                default:
+                    // Mostly drawing, with the chat and timer lines of a round
+                    int roll = random.nextInt(20);
+                    line = roll == 0 ? chat(random) : roll == 1 ? "TIMER|" + (80 - i / 50 % 80)
+                        : "DRAW_BATCH|" + walk.segment(i) + ";" + walk.segment(i);
+            }
+            traffic[i] = (line + "\n").getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String chat(Random random) {
+        return "CHAT|Player-" + (1000 + random.nextInt(8)) + "|" + GUESSES[random.nextInt(GUESSES.length)];
+    }
+
+    // A hand drawing: short moves, a few colors and sizes
+    private static final class Walk {
+        private final Random random;
+        private int x = 400, y = 300;
+
+        Walk(Random random) {
+            this.random = random;
+        }
+
+        String segment(int i) {
+            int nx = Math.max(0, Math.min(799, x + random.nextInt(21) - 10));
+            int ny = Math.max(0, Math.min(599, y + random.nextInt(21) - 10));
+            int color = (i / 500) % 3 == 0 ? 0 : 200;
+            String segment = x + "," + y + "," + nx + "," + ny + "," + color + ",0," + color + "," + (3 + i / 1000 % 3 * 4);
+            x = nx;
+            y = ny;
+            return segment;
+        }
+    }
+
+    @Override
+    public long getAsLong() {
+        long plain = 0;
+        for (int i = 0; i < linesPerFlush; i++) {
+            byte[] line = traffic[next];
+            next = (next + 1) % traffic.length;
+            encoder.write(line);
+            plain += line.length;
+        }
+        return plain << 32 | encoder.flush().length;
+    }
+}
@@ -0,0 +1,20 @@
+import java.net.Socket;
+import java.util.function.IntSupplier;
+
+// One client, not in a room, handling the same line over and over; replies
+// are drained so its send queue stays empty. Loaded by name from the
+// benchmarks, which live in a package and so cannot name this one.
+public final class DispatchFixture implements IntSupplier {
+    private final ScribbleServer.ClientHandler client = new ScribbleServer.ClientHandler((Socket) null);
+    private final String message;
+
+    public DispatchFixture(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public int getAsInt() {
+        client.processMessage(message);
+        return BroadcastFixture.drain(client);
+    }
+}
@@ -0,0 +1,59 @@
+import java.net.Socket;
+import java.util.function.IntSupplier;
+
+// A room in the middle of a round of "butterfly", with twelve players of
+// whom four have guessed: enough for the masked word to show letters.
+// Nothing here starts timers, so only the benchmark thread touches it.
+public final class RoomFixture implements IntSupplier {
+    private final ScribbleServer.GameRoom room;
+    private final ScribbleServer.ClientHandler guesser;
+    private final IntSupplier operation;
+
+    public RoomFixture(String operation) {
+        ScribbleServer.ClientHandler drawer = new ScribbleServer.ClientHandler((Socket) null);
+        room = new ScribbleServer.GameRoom("BNCH", drawer, new String[] {"true"});
+        room.players.add(drawer);
+        for (int i = 1; i < 12; i++) {
+            room.players.add(new ScribbleServer.ClientHandler((Socket) null));
+        }
+        // Only the count matters to the mask; ids are private to the handler
+        for (int i = 0; i < 4; i++) {
+            room.hasGuessed.put("guessed-" + i, true);
+        }
+        guesser = room.players.get(1);
+        room.gameActive = true;
+        room.phase = ScribbleServer.GameRoom.Phase.DRAWING;
+        room.currentWord = "butterfly";
+        room.guessMatcher = new GuessMatcher(room.currentWord);
+        switch (operation) {
+            case "wrongGuess":
+                this.operation = () -> guess("is it a giraffe");
+                break;
+            case "closeGuess":
+                this.operation = () -> guess("buterfly");
+                break;
+            case "selectRandomWords":
+                this.operation = () -> room.selectRandomWords().length;
+                break;
+            case "maskedWord":
+                this.operation = () -> room.getMaskedWord().length();
+                break;
+            default:
+                throw new IllegalArgumentException(operation);
+        }
+    }
+
+    private int guess(String text) {
+        room.processGuess(guesser, text);
+        int drained = 0;
+        for (ScribbleServer.ClientHandler player : room.players) {
+            drained += BroadcastFixture.drain(player);
+        }
+        return drained;
+    }
+
+    @Override
+    public int getAsInt() {
+        return operation.getAsInt();
+    }
+}
@@ -0,0 +1,40 @@
+package scribble.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// GameRoom.broadcast of one chat line, including draining every recipient's
+// queue the way its writer would
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BroadcastBenchmark {
+    @Param({"2", "12", "100"})
+    public String recipients;
+
+    private IntSupplier broadcast;
+
+    @Setup
+    public void setUp() {
+        broadcast = Fixtures.load("BroadcastFixture", recipients);
+    }
+
+    @Benchmark
+    public int broadcast() {
+        return broadcast.getAsInt();
+    }
+}
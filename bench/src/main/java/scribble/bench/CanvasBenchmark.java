@@ -0,0 +1,48 @@
+package scribble.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The client canvas, headless: N network segments through drawFromNetwork,
+// each parsed and painted onto the back buffer, and one full paintComponent
+// of a canvas holding N segments
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CanvasBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public String segments;
+
+    private IntSupplier parse;
+    private IntSupplier paint;
+
+    @Setup
+    public void setUp() {
+        parse = Fixtures.load("CanvasFixture", "parse:" + segments);
+        paint = Fixtures.load("CanvasFixture", "paint:" + segments);
+    }
+
+    @Benchmark
+    public int drawFromNetwork() {
+        return parse.getAsInt();
+    }
+
+    @Benchmark
+    public int paintComponent() {
+        return paint.getAsInt();
+    }
+}
@@ -0,0 +1,67 @@
+package scribble.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The CPU one connection's deflate stream costs per flush, and what it
+// saves: plainBytes and wireBytes are reported alongside the time as totals
+// per iteration, so their ratio is the share of bandwidth left.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CompressionBenchmark {
+    @Param({"draw", "batch", "chat", "mixed"})
+    public String traffic;
+
+    @Param({"1", "6", "9"})
+    public String level;
+
+    // Lines written between sync flushes: 1 when every message goes out on
+    // its own, more when a writer finds several queued
+    @Param({"1", "8"})
+    public String lines;
+
+    private LongSupplier compress;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long plainBytes;
+        public long wireBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            plainBytes = 0;
+            wireBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        compress = Fixtures.load(LongSupplier.class, "CompressionFixture", traffic + ":" + level + ":" + lines);
+    }
+
+    @Benchmark
+    public long deflate(Bytes bytes) {
+        long sizes = compress.getAsLong();
+        bytes.plainBytes += sizes >>> 32;
+        bytes.wireBytes += sizes & 0xFFFFFFFFL;
+        return sizes;
+    }
+}
@@ -0,0 +1,39 @@
+package scribble.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ClientHandler.processMessage for commands that need no room
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DispatchBenchmark {
+    @Param({"SET_AVATAR|#33AAFF|hat", "SET_NAME|Player One", "LOBBY_UNSUBSCRIBE", "NO_SUCH_COMMAND|x"})
+    public String message;
+
+    private IntSupplier dispatch;
+
+    @Setup
+    public void setUp() {
+        dispatch = Fixtures.load("DispatchFixture", message);
+    }
+
+    @Benchmark
+    public int processMessage() {
+        return dispatch.getAsInt();
+    }
+}
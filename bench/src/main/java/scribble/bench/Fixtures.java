@@ -0,0 +1,24 @@
+package scribble.bench;
+
+import java.util.function.IntSupplier;
+
+// JMH will not generate code for benchmarks in the default package, and
+// named packages cannot refer to the default package, so each fixture is
+// looked up by name once per trial and called through a java.util.function
+// interface, IntSupplier unless the benchmark needs more than one number.
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    static IntSupplier load(String className, String argument) {
+        return load(IntSupplier.class, className, argument);
+    }
+
+    static <T> T load(Class<T> type, String className, String argument) {
+        try {
+            return type.cast(Class.forName(className).getConstructor(String.class).newInstance(argument));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set up " + className + "(" + argument + ")", e);
+        }
+    }
+}
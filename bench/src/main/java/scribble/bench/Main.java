@@ -0,0 +1,32 @@
+package scribble.bench;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+// java -jar target/benchmarks.jar [JMH options]
+//
+// Same as JMH's own main, except that unless -rf/-rff are given the results
+// are also written as JSON to bench-results/<timestamp>.json, one file per
+// run, for comparing runs against each other.
+public final class Main {
+    private Main() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        boolean listing = options.contains("-l") || options.contains("-lp") || options.contains("-h");
+        if (!listing && !options.contains("-rf") && !options.contains("-rff")) {
+            File directory = new File("bench-results");
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalStateException("Cannot create " + directory);
+            }
+            String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            options.addAll(Arrays.asList("-rf", "json", "-rff", new File(directory, stamp + ".json").getPath()));
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
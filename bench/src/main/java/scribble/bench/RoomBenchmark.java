@@ -0,0 +1,40 @@
+package scribble.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Per-round room work: guesses that miss or nearly match (and are
+// broadcast to 12 players), drawing word choices and masking the word
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RoomBenchmark {
+    @Param({"wrongGuess", "closeGuess", "selectRandomWords", "maskedWord"})
+    public String operation;
+
+    private IntSupplier room;
+
+    @Setup
+    public void setUp() {
+        room = Fixtures.load("RoomFixture", operation);
+    }
+
+    @Benchmark
+    public int room() {
+        return room.getAsInt();
+    }
+}
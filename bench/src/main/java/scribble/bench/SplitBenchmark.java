@@ -0,0 +1,42 @@
+package scribble.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The splits every line goes through: the server's command split and the
+// client's per-segment split in drawFromNetwork
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitBenchmark {
+    // Fields, so the JIT cannot fold the splits into constants
+    public String drawLine = "DRAW|412,305,418,309,0,0,0,5";
+    public String chatLine = "CHAT|is it a giraffe or maybe an elephant?";
+    public String segment = "412,305,418,309,0,0,0,5";
+
+    @Benchmark
+    public String[] command() {
+        return drawLine.split("\\|", 3);
+    }
+
+    @Benchmark
+    public String[] chat() {
+        return chatLine.split("\\|", 3);
+    }
+
+    @Benchmark
+    public String[] segment() {
+        return segment.split(",");
+    }
+}
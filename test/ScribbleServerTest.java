@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// Talks to a server running in this JVM over the text protocol. The server
+// keeps its state in statics, so it is started once for the whole class.
+class ScribbleServerTest {
+    private static int port;
+    private Client host;
+    private Client guest;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Path dir = Files.createTempDirectory("scribble-test");
+        Thread server = new Thread(() -> ScribbleServer.main(new String[] {
+            "--port=" + port, "--engine=thread",
+            "--stats-file=" + dir.resolve("stats.log"),
+            "--profanity-dir=" + dir.resolve("profanity"),
+            "--words-dir=" + dir.resolve("words")}), "test-server");
+        server.setDaemon(true);
+        server.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try (Socket ignored = new Socket("127.0.0.1", port)) {
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    @AfterEach
+    void disconnect() throws IOException {
+        if (host != null) host.close();
+        if (guest != null) guest.close();
+    }
+
+    @Test
+    void profaneGuessIsBlockedWhileTheDrawerChooses() throws IOException {
+        host = new Client("host");
+        guest = new Client("guest");
+        host.send("CREATE_ROOM|false,8,1,30");
+        String code = host.await("ROOM_CREATED|").split("\\|")[1];
+        guest.send("JOIN_ROOM|" + code);
+        guest.await("ROOM_JOINED|");
+        host.send("START_GAME|x");
+        host.await("CHOOSE_WORD|");
+
+        guest.send("GUESS|badword1");
+        assertEquals("ERROR|Message blocked", guest.await("ERROR|"));
+    }
+
+    private static final class Client {
+        private final Socket socket;
+        private final OutputStream out;
+        private final BufferedReader in;
+
+        Client(String name) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setSoTimeout(5000);
+            out = socket.getOutputStream();
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            send("SET_NAME|" + name);
+        }
+
+        void send(String message) throws IOException {
+            out.write((message + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        // The first line with the prefix, skipping numbered-message headers
+        String await(String prefix) throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("@")) line = line.substring(line.indexOf('|') + 1);
+                if (line.startsWith(prefix)) return line;
+            }
+            assertNotNull(line, "Disconnected while waiting for " + prefix);
+            return null;
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class StrokeCodecTest {
+    // A BEGIN with the smallest values is 7 bytes, so the prefixes below put
+    // the large record at every offset across the 64, 128 and 256 byte growth
+    // points of the buffer
+    @Test
+    void beginWithLargestValuesFitsAtAnyOffset() {
+        for (int prefix = 0; prefix < 60; prefix++) {
+            StrokeCodec.Encoder encoder = new StrokeCodec.Encoder();
+            for (int i = 0; i < prefix; i++) {
+                encoder.begin(0, 0, 0, 0);
+            }
+            encoder.begin(0xFFFFFF, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+            assertEquals(prefix * 7 + 19, encoder.drain().length);
+        }
+    }
+
+    @Test
+    void parseTextRejectsSegmentsOffTheCanvas() {
+        StrokeCodec.Segments segments = new StrokeCodec.Segments();
+        assertTrue(segments.parseText("0,0,799,599,0,0,0,63"));
+        assertFalse(segments.parseText("-1,0,5,5,0,0,0,3"));
+        assertFalse(segments.parseText("0,0,800,5,0,0,0,3"));
+        assertFalse(segments.parseText("0,0,5,600,0,0,0,3"));
+        assertFalse(segments.parseText("0,0,5,5,0,0,0,64"));
+        assertFalse(segments.parseText("1,1,2,2,0,0,0,3;0,0,999999999,5,0,0,0,3"));
+    }
+
+    @Test
+    void decoderRejectsStrokesOffTheCanvas() {
+        StrokeCodec.Encoder encoder = new StrokeCodec.Encoder();
+        encoder.begin(0, 3, 10, 10);
+        encoder.lineTo(-5, 10);
+        byte[] leavesCanvas = encoder.drain();
+        assertThrows(IllegalArgumentException.class,
+            () -> new StrokeCodec.Decoder().decode(leavesCanvas, new StrokeCodec.Segments()));
+
+        encoder.begin(0, 3, Integer.MAX_VALUE, 10);
+        byte[] startsOffCanvas = encoder.drain();
+        assertThrows(IllegalArgumentException.class,
+            () -> new StrokeCodec.Decoder().decode(startsOffCanvas, new StrokeCodec.Segments()));
+
+        encoder.begin(0, 1000, 10, 10);
+        byte[] hugeBrush = encoder.drain();
+        assertThrows(IllegalArgumentException.class,
+            () -> new StrokeCodec.Decoder().decode(hugeBrush, new StrokeCodec.Segments()));
+    }
+}